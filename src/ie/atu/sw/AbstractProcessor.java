@@ -1,53 +1,84 @@
 package ie.atu.sw;
 
 import java.io.BufferedReader;
-import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.StructuredTaskScope;
 
 /**
  * AbstractProcessor provides a base class for processing files line by line
- * using structured concurrency. Subclasses must implement the process method to
+ * using the shared TaskScheduler. Subclasses must implement the process method to
  * define the logic for handling each line.
  */
 public abstract class AbstractProcessor implements Loader {
 
+	// Number of lines handed to a single task while loading
+	private static final int LINES_PER_BATCH = 512;
+
 	/**
-	 * Loads a file and processes each line concurrently.
+	 * Loads a file and processes its lines concurrently.
 	 *
-	 * Each line of the file is read and processed in a separate virtual thread.
-	 * Structured concurrency ensures all tasks are managed properly.
+	 * Lines are read into batches which are processed by the shared
+	 * TaskScheduler. The reader blocks while too many batches are in flight, so
+	 * the whole file is never buffered in memory at once. Gzip-compressed files
+	 * are decompressed on a separate thread while the lines are parsed.
 	 * 
 	 * Running time: O(n), where n is the number of lines in the file.
 	 *
 	 * @param filePath The path to the file to be processed.
-	 * @throws IOException If an error occurs while reading the file.
+	 * @throws IOException If an error occurs while reading the file, or a batch
+	 *                     of lines could not be processed.
 	 */
 	@Override
 	public void load(String filePath) throws IOException {
-		try (BufferedReader reader = new BufferedReader(new FileReader(filePath));
-				var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+		try (BufferedReader reader = FileStreams.openReader(filePath);
+				var scope = TaskScheduler.getShared().open("load")) {
 			String line;
-			// Process each line in a separate virtual thread
+			List<String> batch = new ArrayList<>(LINES_PER_BATCH);
+			// Process the lines in batches
 			while ((line = reader.readLine()) != null) {
-				String currentLine = line;
-				scope.fork(() -> {
-					try {
-						process(currentLine); // Process the line
-					} catch (Exception e) {
-						System.err.println("Failed to process line: " + currentLine + ". Error: " + e.getMessage());
+				batch.add(line);
+				if (batch.size() == LINES_PER_BATCH) {
+					if (!submitBatch(scope, batch)) {
+						break; // A batch failed; join reports the failure
 					}
-					return null;
-				});
+					batch = new ArrayList<>(LINES_PER_BATCH);
+				}
 			}
-			// Wait for all threads to complete and handle exceptions
+			submitBatch(scope, batch);
+			// Wait for all batches to complete and handle exceptions
 			scope.join();
-			scope.throwIfFailed();
-		} catch (InterruptedException | ExecutionException e) {
+		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
-			System.err.println("Error during file processing: " + e.getMessage());
+			throw new IOException("Interrupted while processing " + filePath, e);
+		} catch (ExecutionException e) {
+			// A failed batch, for example out of memory, leaves the data incomplete
+			throw new IOException("Failed to process " + filePath + ": " + e.getCause(), e.getCause());
+		}
+	}
+
+	/**
+	 * Submits a batch of lines to be processed.
+	 *
+	 * @param scope The scope to submit the batch to.
+	 * @param lines The lines in the batch.
+	 * @return False if the batch was not submitted because a batch failed.
+	 * @throws InterruptedException If interrupted while waiting to submit.
+	 */
+	private boolean submitBatch(TaskScheduler.StageScope scope, List<String> lines) throws InterruptedException {
+		if (lines.isEmpty()) {
+			return true;
 		}
+		return scope.submit(lines.size(), () -> {
+			for (String currentLine : lines) {
+				try {
+					process(currentLine); // Process the line
+				} catch (Exception e) {
+					System.err.println("Failed to process line: " + currentLine + ". Error: " + e.getMessage());
+				}
+			}
+		});
 	}
 
 	/**
@@ -1,13 +1,18 @@
 package ie.atu.sw;
 
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * EmbeddingProcessor is a subclass of AbstractProcessor that processes lines
  * from an embeddings file and stores word vectors in a thread-safe map.
+ * Vectors of selected words can also be captured into a separate map as soon as
+ * their lines are parsed.
  */
 public class EmbeddingProcessor extends AbstractProcessor {
 	private final ConcurrentHashMap<String, double[]> embeddings = new ConcurrentHashMap<>();
+	private final ConcurrentHashMap<String, double[]> captured = new ConcurrentHashMap<>();
+	private volatile Set<String> captureWords = Set.of();
 
 	/**
 	 * Processes a single line of the embeddings file.
@@ -30,6 +35,24 @@ public class EmbeddingProcessor extends AbstractProcessor {
 			vector[i - 1] = Double.parseDouble(parts[i]);
 		}
 		embeddings.put(word, vector); // Add word vector to map
+		if (captureWords.contains(word)) {
+			captured.put(word, vector);
+		}
+	}
+
+	/**
+	 * Captures the vectors of the given words while the file is loaded, so that
+	 * target words do not need to be looked up once loading has finished. Must be
+	 * called before load.
+	 * 
+	 * Running time: O(1).
+	 *
+	 * @param words The words to capture.
+	 * @return The map the captured vectors are stored in, filled during load.
+	 */
+	public ConcurrentHashMap<String, double[]> capture(Set<String> words) {
+		captureWords = words;
+		return captured;
 	}
 
 	/**
@@ -0,0 +1,286 @@
+package ie.atu.sw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * FileStreams opens the text files read and written by the application.
+ * Gzip-compressed input is detected from its header and decompressed by a
+ * separate thread which hands large blocks to the reader through a bounded
+ * queue, so decompression overlaps with splitting and parsing lines. Output
+ * paths ending in .gz are written gzip-compressed.
+ *
+ * The throughput of every file read is recorded so that it can be reported
+ * once processing has finished.
+ */
+public class FileStreams {
+	// Size of the decompressed blocks passed to the reader
+	private static final int BLOCK_SIZE = 1 << 20;
+
+	// Number of decompressed blocks that may wait for the reader
+	private static final int QUEUE_BLOCKS = 8;
+
+	// Size of the buffers around the underlying files
+	private static final int BUFFER_SIZE = 1 << 16;
+
+	private static final ConcurrentLinkedQueue<ReadStats> READS = new ConcurrentLinkedQueue<>();
+
+	private FileStreams() {
+	}
+
+	/**
+	 * Opens a text file for reading, decompressing it if it is gzip-compressed.
+	 *
+	 * @param filePath The path to the file.
+	 * @return A reader over the decoded text.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	public static BufferedReader openReader(String filePath) throws IOException {
+		InputStream file = new BufferedInputStream(new FileInputStream(filePath), BUFFER_SIZE);
+		boolean compressed;
+		try {
+			// Gzip streams start with the bytes 0x1f 0x8b
+			file.mark(2);
+			compressed = file.read() == 0x1f && file.read() == 0x8b;
+			file.reset();
+		} catch (IOException e) {
+			file.close();
+			throw e;
+		}
+		InputStream data = compressed ? new DecompressingInputStream(file) : file;
+		return new BufferedReader(new InputStreamReader(new MeasuredInputStream(data, filePath, compressed),
+				StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	/**
+	 * Opens a text file for writing. Paths ending in .gz are gzip-compressed.
+	 *
+	 * @param filePath The path to the file.
+	 * @return A writer for the file.
+	 * @throws IOException If the file cannot be created.
+	 */
+	public static BufferedWriter openWriter(String filePath) throws IOException {
+		OutputStream file = new FileOutputStream(filePath);
+		if (filePath.endsWith(".gz")) {
+			file = new GZIPOutputStream(file, BUFFER_SIZE);
+		}
+		return new BufferedWriter(new OutputStreamWriter(file, StandardCharsets.UTF_8), BUFFER_SIZE);
+	}
+
+	/**
+	 * Clears the throughput recorded so far.
+	 */
+	public static void resetStats() {
+		READS.clear();
+	}
+
+	/**
+	 * Prints the size and throughput of every file read since the last reset.
+	 */
+	public static void printReport() {
+		if (READS.isEmpty()) {
+			return;
+		}
+		System.out.println(ConsoleColour.CYAN + "\nInput throughput:" + ConsoleColour.RESET);
+		for (ReadStats read : READS) {
+			double seconds = Math.max(read.nanos, 1) / 1e9;
+			System.out.printf("  %-30s %8.1f MB in %6.2fs (%.1f MB/s)%s%n", Path.of(read.filePath).getFileName(),
+					read.bytes / 1e6, seconds, read.bytes / 1e6 / seconds,
+					read.compressed ? String.format(", gzip %.1f MB on disk", read.fileSize / 1e6) : "");
+		}
+	}
+
+	/**
+	 * The size and read time of a single file.
+	 */
+	private static class ReadStats {
+		private final String filePath;
+		private final boolean compressed;
+		private final long fileSize;
+		private final long bytes;
+		private final long nanos;
+
+		private ReadStats(String filePath, boolean compressed, long fileSize, long bytes, long nanos) {
+			this.filePath = filePath;
+			this.compressed = compressed;
+			this.fileSize = fileSize;
+			this.bytes = bytes;
+			this.nanos = nanos;
+		}
+	}
+
+	/**
+	 * Counts the bytes read from a file and records the throughput when closed.
+	 */
+	private static class MeasuredInputStream extends FilterInputStream {
+		private final String filePath;
+		private final boolean compressed;
+		private final long start = System.nanoTime();
+		private long bytes;
+		private boolean closed;
+
+		private MeasuredInputStream(InputStream in, String filePath, boolean compressed) {
+			super(in);
+			this.filePath = filePath;
+			this.compressed = compressed;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = in.read();
+			bytes += (b >= 0) ? 1 : 0;
+			return b;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			int n = in.read(buffer, offset, length);
+			bytes += Math.max(n, 0);
+			return n;
+		}
+
+		@Override
+		public void close() throws IOException {
+			if (!closed) {
+				closed = true;
+				long fileSize = Files.size(Path.of(filePath));
+				READS.add(new ReadStats(filePath, compressed, fileSize, bytes, System.nanoTime() - start));
+			}
+			super.close();
+		}
+	}
+
+	/**
+	 * DecompressingInputStream inflates a gzip stream on its own thread. The
+	 * decompressed data is passed to the reader in blocks through a bounded
+	 * queue, so the decompressor runs ahead of the reader by at most a few blocks.
+	 */
+	private static class DecompressingInputStream extends InputStream {
+		// Marks the end of the decompressed data
+		private static final byte[] END = new byte[0];
+
+		private final ArrayBlockingQueue<byte[]> blocks = new ArrayBlockingQueue<>(QUEUE_BLOCKS);
+		private final InputStream compressed;
+		private volatile IOException failure;
+		private volatile boolean closed;
+		private byte[] block = new byte[0];
+		private int position;
+		private boolean finished;
+
+		private DecompressingInputStream(InputStream compressed) {
+			this.compressed = compressed;
+			Thread.ofPlatform().daemon().name("gzip-decompressor").start(this::decompress);
+		}
+
+		/**
+		 * Inflates the compressed stream into blocks until the end of the data or
+		 * until the stream is closed.
+		 */
+		private void decompress() {
+			try (GZIPInputStream gzip = new GZIPInputStream(compressed, BUFFER_SIZE)) {
+				while (!closed) {
+					byte[] next = new byte[BLOCK_SIZE];
+					int n = gzip.readNBytes(next, 0, BLOCK_SIZE);
+					if (n > 0 && !offer(n == BLOCK_SIZE ? next : Arrays.copyOf(next, n))) {
+						return;
+					}
+					if (n < BLOCK_SIZE) {
+						break; // End of the compressed data
+					}
+				}
+			} catch (IOException e) {
+				failure = e;
+			}
+			offer(END);
+		}
+
+		/**
+		 * Waits for space in the queue, giving up if the stream is closed.
+		 *
+		 * @return True if the block was queued.
+		 */
+		private boolean offer(byte[] next) {
+			try {
+				while (!closed) {
+					if (blocks.offer(next, 100, TimeUnit.MILLISECONDS)) {
+						return true;
+					}
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			return false;
+		}
+
+		/**
+		 * Moves to the next block if the current one has been read.
+		 *
+		 * @return False at the end of the data.
+		 */
+		private boolean nextBlock() throws IOException {
+			while (position == block.length) {
+				if (finished) {
+					return false;
+				}
+				try {
+					block = blocks.take();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for decompressed data", e);
+				}
+				position = 0;
+				if (block == END) {
+					finished = true;
+					if (failure != null) {
+						throw new IOException("Failed to decompress: " + failure.getMessage(), failure);
+					}
+				}
+			}
+			return true;
+		}
+
+		@Override
+		public int read() throws IOException {
+			return nextBlock() ? block[position++] & 0xff : -1;
+		}
+
+		@Override
+		public int read(byte[] buffer, int offset, int length) throws IOException {
+			if (length == 0) {
+				return 0;
+			}
+			if (!nextBlock()) {
+				return -1;
+			}
+			int n = Math.min(length, block.length - position);
+			System.arraycopy(block, position, buffer, offset, n);
+			position += n;
+			return n;
+		}
+
+		@Override
+		public void close() {
+			// The decompressor closes the compressed stream when it stops
+			closed = true;
+			blocks.clear();
+		}
+	}
+}
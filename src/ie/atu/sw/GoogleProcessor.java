@@ -1,13 +1,15 @@
 package ie.atu.sw;
 
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * GoogleProcessor is a subclass of AbstractProcessor that processes lines from
- * the Google-1000 word list and stores them in a thread-safe set.
+ * the Google-1000 word list, or any other target word list, and stores them in
+ * a thread-safe set.
  */
 public class GoogleProcessor extends AbstractProcessor {
-	private final CopyOnWriteArraySet<String> googleWords = new CopyOnWriteArraySet<>();
+	private final Set<String> googleWords = ConcurrentHashMap.newKeySet();
 
 	/**
 	 * Processes a single line from the Google-1000 word list.
@@ -28,7 +30,9 @@ public class GoogleProcessor extends AbstractProcessor {
 	 * 
 	 * @return A copy of the googleWords set.
 	 */
-	public CopyOnWriteArraySet<String> getGoogleWords() {
-		return new CopyOnWriteArraySet<>(googleWords);
+	public Set<String> getGoogleWords() {
+		Set<String> copy = ConcurrentHashMap.newKeySet(googleWords.size());
+		copy.addAll(googleWords);
+		return copy;
 	}
 }
@@ -1,22 +1,30 @@
 package ie.atu.sw;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.StructuredTaskScope;
 
 /**
  * Mapper is responsible for generating a mapping between words and their
  * corresponding embeddings.
  */
 public class Mapper {
+	// Minimum number of words looked up by a single task
+	private static final int WORDS_PER_BATCH = 4096;
+
+	// Number of missing words named in the report
+	private static final int MISSING_EXAMPLES = 10;
 
 	/**
 	 * Generates a mapping between words and their embeddings.
 	 *
 	 * This method processes the given set of words and retrieves their
-	 * corresponding embeddings from the provided map. It uses structured
-	 * concurrency to handle each word in parallel.
+	 * corresponding embeddings from the provided map. Words are handled in
+	 * batches by the shared TaskScheduler.
 	 * 
 	 * Running time: O(n), where n is the number of words in the input set.
 	 *
@@ -26,30 +34,37 @@ public class Mapper {
 	 * @return A map containing the words and their corresponding embeddings.
 	 */
 	public ConcurrentHashMap<String, double[]> generateMapping(ConcurrentHashMap<String, double[]> embeddings,
-			CopyOnWriteArraySet<String> words) {
+			Set<String> words) {
 		// Create a concurrent hash map to store the resulting embeddings
 		ConcurrentHashMap<String, double[]> googleEmbeddings = new ConcurrentHashMap<>();
-		try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
-			for (String word : words) {
-				// Fork a new thread to process each word
-				scope.fork(() -> {
+		List<String> wordList = new ArrayList<>(words);
+		Queue<String> missing = new ConcurrentLinkedQueue<>();
+		try {
+			// Lookups are cheap, so words are handled in large batches
+			TaskScheduler.getShared().forEachBatch("mapping", wordList.size(), WORDS_PER_BATCH, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					String word = wordList.get(i);
 					double[] embedding = embeddings.get(word);
 					if (embedding != null) {
 						googleEmbeddings.put(word, embedding); // Store the embedding in the result map
 					} else {
-						System.err.println("No embedding found for word: " + word);
+						missing.add(word);
 					}
-					return null;
-				});
-			}
-			// Wait for all threads to complete and propagate exceptions if any
-			scope.join();
-			scope.throwIfFailed();
-		} catch (InterruptedException | ExecutionException e) {
+				}
+			});
+		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			System.err.println("Task interrupted: " + e.getMessage());
+		} catch (ExecutionException e) {
+			System.err.println("Task interrupted: " + e.getMessage());
 		}
 
+		// Report the missing words once rather than one line per word
+		if (!missing.isEmpty()) {
+			List<String> examples = missing.stream().limit(MISSING_EXAMPLES).toList();
+			System.err.println("No embedding found for " + missing.size() + " of " + wordList.size() + " words: "
+					+ String.join(", ", examples) + ((missing.size() > examples.size()) ? ", ..." : ""));
+		}
 		return googleEmbeddings;
 	}
 }
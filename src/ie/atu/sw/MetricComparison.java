@@ -0,0 +1,158 @@
+package ie.atu.sw;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * MetricComparison holds the result of simplifying the same lines with several
+ * similarity algorithms at once: the simplified lines for each algorithm and
+ * every word the algorithms replaced differently.
+ */
+public class MetricComparison {
+	private final List<SimilarityFinder.SimilarityAlgorithm> algorithms;
+	private final EnumMap<SimilarityFinder.SimilarityAlgorithm, CopyOnWriteArrayList<String>> outputs;
+	private final List<Disagreement> disagreements;
+	private final long comparedWords;
+
+	/**
+	 * MetricComparison constructor.
+	 *
+	 * @param algorithms    The compared algorithms, in report column order.
+	 * @param outputs       The simplified lines for each algorithm.
+	 * @param disagreements The words replaced differently, in line order.
+	 * @param comparedWords The number of words that had an embedding.
+	 */
+	public MetricComparison(List<SimilarityFinder.SimilarityAlgorithm> algorithms,
+			EnumMap<SimilarityFinder.SimilarityAlgorithm, CopyOnWriteArrayList<String>> outputs,
+			List<Disagreement> disagreements, long comparedWords) {
+		this.algorithms = algorithms;
+		this.outputs = outputs;
+		this.disagreements = disagreements;
+		this.comparedWords = comparedWords;
+	}
+
+	/**
+	 * Returns the compared algorithms.
+	 *
+	 * @return The algorithms in report column order.
+	 */
+	public List<SimilarityFinder.SimilarityAlgorithm> getAlgorithms() {
+		return algorithms;
+	}
+
+	/**
+	 * Returns the simplified lines for an algorithm.
+	 *
+	 * @param algorithm One of the compared algorithms.
+	 * @return The simplified lines.
+	 */
+	public CopyOnWriteArrayList<String> getOutput(SimilarityFinder.SimilarityAlgorithm algorithm) {
+		return outputs.get(algorithm);
+	}
+
+	/**
+	 * Returns the words the algorithms replaced differently.
+	 *
+	 * @return The disagreements in line order.
+	 */
+	public List<Disagreement> getDisagreements() {
+		return disagreements;
+	}
+
+	/**
+	 * Returns the number of words that had an embedding and were compared.
+	 *
+	 * @return The number of compared words.
+	 */
+	public long getComparedWords() {
+		return comparedWords;
+	}
+
+	/**
+	 * Writes the header of a tab-separated disagreement report.
+	 *
+	 * @param writer     The writer for the report.
+	 * @param algorithms The compared algorithms.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public static void writeReportHeader(BufferedWriter writer, List<SimilarityFinder.SimilarityAlgorithm> algorithms)
+			throws IOException {
+		writer.write("line\tword");
+		for (var algorithm : algorithms) {
+			writer.write("\t" + algorithm);
+		}
+		writer.newLine();
+	}
+
+	/**
+	 * Writes one tab-separated row per disagreement.
+	 *
+	 * Running time: O(n), where n is the number of disagreements.
+	 *
+	 * @param writer    The writer for the report.
+	 * @param firstLine The line number of the first line in this comparison.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	public void writeReport(BufferedWriter writer, int firstLine) throws IOException {
+		for (Disagreement disagreement : disagreements) {
+			writer.write((firstLine + disagreement.getLine()) + "\t" + disagreement.getWord());
+			for (var algorithm : algorithms) {
+				writer.write("\t" + disagreement.getReplacements().get(algorithm));
+			}
+			writer.newLine();
+		}
+	}
+
+	/**
+	 * A word that the compared algorithms replaced differently.
+	 */
+	public static class Disagreement {
+		private final int line;
+		private final String word;
+		private final EnumMap<SimilarityFinder.SimilarityAlgorithm, String> replacements;
+
+		/**
+		 * Disagreement constructor.
+		 *
+		 * @param line         The index of the line within the compared lines.
+		 * @param word         The original word or phrase.
+		 * @param replacements The replacement chosen by each algorithm.
+		 */
+		public Disagreement(int line, String word,
+				EnumMap<SimilarityFinder.SimilarityAlgorithm, String> replacements) {
+			this.line = line;
+			this.word = word;
+			this.replacements = replacements;
+		}
+
+		/**
+		 * Returns the index of the line within the compared lines.
+		 *
+		 * @return The line index, starting at 0.
+		 */
+		public int getLine() {
+			return line;
+		}
+
+		/**
+		 * Returns the original word or phrase.
+		 *
+		 * @return The original word.
+		 */
+		public String getWord() {
+			return word;
+		}
+
+		/**
+		 * Returns the replacement chosen by each algorithm.
+		 *
+		 * @return The replacements.
+		 */
+		public EnumMap<SimilarityFinder.SimilarityAlgorithm, String> getReplacements() {
+			return replacements;
+		}
+	}
+}
@@ -0,0 +1,378 @@
+package ie.atu.sw;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * NearestNeighbourIndex is an exact search index over a set of target
+ * embeddings. The targets are partitioned into k-means clusters, and each
+ * cluster stores its centroid and radius. A query visits the closest clusters
+ * first and skips every cluster, and every member, whose bound shows it cannot
+ * score better than the best match found so far:
+ *
+ * - EUCLIDEAN: by the triangle inequality, d(q, x) >= d(q, c) - r and d(q, x)
+ * >= |d(q, c) - d(x, c)|. - COSINE: by the same inequality on angles between
+ * unit vectors, the angle between q and x is at least the angle between q and
+ * c minus the angular radius of the cluster.
+ *
+ * Candidates are only skipped when their bound is strictly worse than the best
+ * score, allowing for rounding, and ties go to the candidate that comes first
+ * in the map's iteration order. The result is therefore the same word the
+ * sequential scan in SimilarityFinder returns.
+ *
+ * The index is read-only after construction and can be shared by multiple
+ * threads.
+ */
+public class NearestNeighbourIndex {
+	// Maximum number of k-means iterations while building the index
+	private static final int ITERATIONS = 10;
+
+	// Maximum number of clusters, and number of sampled points per cluster used
+	// to fit the centroids, which keep the build close to linear in the targets
+	private static final int MAX_CLUSTERS = 128;
+	private static final int SAMPLE_PER_CLUSTER = 32;
+
+	// Slack added to bounds so that rounding never skips a better candidate
+	private static final double EPSILON = 1e-6;
+
+	private final SimilarityFinder.SimilarityAlgorithm algorithm;
+	private final String[] words;
+	private final double[][] vectors;
+	private final double[][] centroids;
+	private final double[] radii;
+	private final int[][] members;
+	private final double[][] memberOffsets;
+	private final int[] unclustered;
+	private final LongAdder candidates = new LongAdder();
+	private final LongAdder scored = new LongAdder();
+
+	/**
+	 * Builds an index over the given embeddings for the given algorithm.
+	 *
+	 * Running time: O(n * k * d), where n is the number of embeddings, k is the
+	 * number of clusters (about the square root of n, at most MAX_CLUSTERS) and
+	 * d is the vector dimension.
+	 *
+	 * @param embeddings The target embeddings.
+	 * @param algorithm  The similarity algorithm the index answers queries for.
+	 */
+	public NearestNeighbourIndex(Map<String, double[]> embeddings, SimilarityFinder.SimilarityAlgorithm algorithm) {
+		this.algorithm = algorithm;
+		int n = embeddings.size();
+		String[] allWords = new String[n];
+		double[][] allVectors = new double[n][];
+		int count = 0;
+		// Positions follow the map's iteration order, which decides ties
+		for (var entry : embeddings.entrySet()) {
+			if (count == n) {
+				break;
+			}
+			allWords[count] = entry.getKey();
+			allVectors[count++] = entry.getValue();
+		}
+		this.words = Arrays.copyOf(allWords, count);
+		this.vectors = Arrays.copyOf(allVectors, count);
+
+		// Cosine clusters unit vectors; zero vectors always score 0 and are kept aside
+		double[][] points = new double[count][];
+		int[] clusterable = new int[count];
+		int[] zero = new int[count];
+		int clusterCount = 0, zeroCount = 0;
+		for (int i = 0; i < count; i++) {
+			points[i] = (algorithm == SimilarityFinder.SimilarityAlgorithm.COSINE) ? unit(vectors[i]) : vectors[i];
+			if (points[i] == null) {
+				zero[zeroCount++] = i;
+			} else {
+				clusterable[clusterCount++] = i;
+			}
+		}
+		this.unclustered = Arrays.copyOf(zero, zeroCount);
+
+		// With no clusterable points only the unclustered list is scored
+		int k = (clusterCount == 0) ? 0
+				: Math.min(MAX_CLUSTERS, Math.max(1, (int) Math.round(Math.sqrt(clusterCount))));
+		this.centroids = new double[k][];
+		int[] assignment = cluster(points, clusterable, clusterCount, k);
+
+		// Group the members of each cluster and record their offsets from the centroid
+		int[] sizes = new int[k];
+		for (int i = 0; i < clusterCount; i++) {
+			sizes[assignment[i]]++;
+		}
+		this.members = new int[k][];
+		this.memberOffsets = new double[k][];
+		this.radii = new double[k];
+		for (int c = 0; c < k; c++) {
+			members[c] = new int[sizes[c]];
+			memberOffsets[c] = new double[sizes[c]];
+		}
+		int[] filled = new int[k];
+		for (int i = 0; i < clusterCount; i++) {
+			int c = assignment[i];
+			int position = clusterable[i];
+			double offset = offset(points[position], centroids[c]);
+			members[c][filled[c]] = position;
+			memberOffsets[c][filled[c]++] = offset;
+			radii[c] = Math.max(radii[c], offset);
+		}
+	}
+
+	/**
+	 * Finds the most similar target word to the given vector.
+	 *
+	 * Running time: O(k * d + m * d), where k is the number of clusters, m is the
+	 * number of candidates that could not be skipped and d is the vector
+	 * dimension.
+	 *
+	 * @param targetVector The vector to compare against.
+	 * @return The word with the highest similarity (for COSINE) or the lowest
+	 *         distance (for EUCLIDEAN), or null if the index is empty.
+	 */
+	public String findMostSimilar(double[] targetVector) {
+		if (words.length == 0) {
+			return null;
+		}
+		boolean cosine = algorithm == SimilarityFinder.SimilarityAlgorithm.COSINE;
+		double[] query = cosine ? unit(targetVector) : targetVector;
+		candidates.add(words.length);
+		if (query == null) {
+			// Every cosine score is 0, so the first candidate wins
+			scored.increment();
+			return words[0];
+		}
+
+		// Bound each cluster and visit the most promising clusters first
+		int k = centroids.length;
+		double[] centreOffsets = new double[k];
+		double[] bounds = new double[k];
+		int[] order = new int[k];
+		for (int c = 0; c < k; c++) {
+			centreOffsets[c] = offset(query, centroids[c]);
+			bounds[c] = centreOffsets[c] - radii[c];
+			order[c] = c;
+		}
+		for (int i = 1; i < k; i++) {
+			int c = order[i];
+			int j = i - 1;
+			for (; j >= 0 && bounds[order[j]] > bounds[c]; j--) {
+				order[j + 1] = order[j];
+			}
+			order[j + 1] = c;
+		}
+
+		Best best = new Best();
+		int scoredCount = 0;
+		for (int position : unclustered) {
+			best.offer(position, score(targetVector, vectors[position]));
+			scoredCount++;
+		}
+		for (int c : order) {
+			if (best.position >= 0 && !couldMatch(bounds[c], best.score)) {
+				continue; // No member of this cluster can match the best score
+			}
+			int[] clusterMembers = members[c];
+			double[] offsets = memberOffsets[c];
+			for (int m = 0; m < clusterMembers.length; m++) {
+				if (best.position >= 0 && !couldMatch(Math.abs(centreOffsets[c] - offsets[m]), best.score)) {
+					continue;
+				}
+				best.offer(clusterMembers[m], score(targetVector, vectors[clusterMembers[m]]));
+				scoredCount++;
+			}
+		}
+		scored.add(scoredCount);
+		return words[best.position];
+	}
+
+	/**
+	 * Returns the fraction of candidates that were skipped by all queries so far.
+	 *
+	 * @return The pruned fraction, between 0 and 1.
+	 */
+	public double getPrunedFraction() {
+		long total = candidates.sum();
+		return (total == 0) ? 0.0 : 1.0 - (double) scored.sum() / total;
+	}
+
+	/**
+	 * Returns the number of clusters in the index.
+	 *
+	 * @return The number of clusters.
+	 */
+	public int getClusterCount() {
+		return centroids.length;
+	}
+
+	/**
+	 * Returns true if a candidate whose offset bound is given could score at least
+	 * as well as the best score. For EUCLIDEAN the bound is a lower bound on the
+	 * distance; for COSINE it is a lower bound on the angle.
+	 */
+	private boolean couldMatch(double bound, double bestScore) {
+		if (algorithm == SimilarityFinder.SimilarityAlgorithm.EUCLIDEAN) {
+			return bound <= bestScore + EPSILON * (1 + bestScore);
+		}
+		return bound <= 0 || Math.cos(Math.min(bound, Math.PI)) >= bestScore - EPSILON;
+	}
+
+	/**
+	 * Scores a candidate exactly as the linear scan does.
+	 */
+	private double score(double[] targetVector, double[] vector) {
+		return switch (algorithm) {
+		case COSINE -> SimilarityFinder.calculateCosineSimilarity(targetVector, vector);
+		case EUCLIDEAN -> SimilarityFinder.calculateEuclideanDistance(targetVector, vector);
+		};
+	}
+
+	/**
+	 * Returns the euclidean distance between two points, or for COSINE the angle
+	 * between two unit vectors.
+	 */
+	private double offset(double[] point, double[] centroid) {
+		if (algorithm == SimilarityFinder.SimilarityAlgorithm.EUCLIDEAN) {
+			return SimilarityFinder.calculateEuclideanDistance(point, centroid);
+		}
+		double dot = 0.0;
+		for (int i = 0; i < point.length; i++) {
+			dot += point[i] * centroid[i];
+		}
+		return Math.acos(Math.max(-1.0, Math.min(1.0, dot)));
+	}
+
+	/**
+	 * Partitions the points into k clusters, filling in the centroids. The
+	 * centroids are fitted with Lloyd's algorithm on at most SAMPLE_PER_CLUSTER
+	 * points per cluster, spread evenly over the positions so that the index is
+	 * the same every time it is built, and every point is then assigned to its
+	 * nearest centroid once.
+	 *
+	 * @return The cluster of each clusterable point.
+	 */
+	private int[] cluster(double[][] points, int[] clusterable, int count, int k) {
+		int[] assignment = new int[count];
+		if (count == 0) {
+			return assignment;
+		}
+		int dimension = points[clusterable[0]].length;
+		int sampleSize = (int) Math.min(count, (long) k * SAMPLE_PER_CLUSTER);
+		int[] sample = new int[sampleSize];
+		for (int j = 0; j < sampleSize; j++) {
+			sample[j] = clusterable[(int) ((long) j * count / sampleSize)];
+		}
+		for (int c = 0; c < k; c++) {
+			centroids[c] = points[sample[(int) ((long) c * sampleSize / k)]].clone();
+		}
+
+		int[] sampleAssignment = new int[sampleSize];
+		for (int iteration = 0; iteration < ITERATIONS; iteration++) {
+			boolean changed = false;
+			// Assign each sampled point to its nearest centroid
+			for (int j = 0; j < sampleSize; j++) {
+				int nearest = nearestCentroid(points[sample[j]]);
+				changed |= iteration == 0 || sampleAssignment[j] != nearest;
+				sampleAssignment[j] = nearest;
+			}
+			if (!changed) {
+				break;
+			}
+			// Move each centroid to the mean of its sampled points
+			double[][] sums = new double[k][dimension];
+			int[] sizes = new int[k];
+			for (int j = 0; j < sampleSize; j++) {
+				double[] point = points[sample[j]];
+				double[] sum = sums[sampleAssignment[j]];
+				for (int d = 0; d < dimension; d++) {
+					sum[d] += point[d];
+				}
+				sizes[sampleAssignment[j]]++;
+			}
+			for (int c = 0; c < k; c++) {
+				if (sizes[c] == 0) {
+					continue; // Keep the previous centroid of an empty cluster
+				}
+				for (int d = 0; d < dimension; d++) {
+					sums[c][d] /= sizes[c];
+				}
+				double[] centroid = (algorithm == SimilarityFinder.SimilarityAlgorithm.COSINE) ? unit(sums[c]) : sums[c];
+				if (centroid != null) {
+					centroids[c] = centroid;
+				}
+			}
+		}
+
+		// Assign every point to the nearest fitted centroid
+		for (int i = 0; i < count; i++) {
+			assignment[i] = nearestCentroid(points[clusterable[i]]);
+		}
+		return assignment;
+	}
+
+	/**
+	 * Returns the index of the centroid nearest to the point. For COSINE the
+	 * nearest centroid has the largest dot product, which avoids an arc cosine
+	 * per centroid.
+	 */
+	private int nearestCentroid(double[] point) {
+		boolean cosine = algorithm == SimilarityFinder.SimilarityAlgorithm.COSINE;
+		int nearest = 0;
+		double nearestOffset = Double.POSITIVE_INFINITY;
+		for (int c = 0; c < centroids.length; c++) {
+			double offset;
+			if (cosine) {
+				double dot = 0.0;
+				for (int i = 0; i < point.length; i++) {
+					dot += point[i] * centroids[c][i];
+				}
+				offset = -dot;
+			} else {
+				offset = offset(point, centroids[c]);
+			}
+			if (offset < nearestOffset) {
+				nearestOffset = offset;
+				nearest = c;
+			}
+		}
+		return nearest;
+	}
+
+	/**
+	 * Returns the vector scaled to unit length, or null for a zero vector.
+	 */
+	private static double[] unit(double[] vector) {
+		double norm = 0.0;
+		for (double component : vector) {
+			norm += component * component;
+		}
+		if (norm == 0) {
+			return null;
+		}
+		norm = Math.sqrt(norm);
+		double[] unit = new double[vector.length];
+		for (int i = 0; i < vector.length; i++) {
+			unit[i] = vector[i] / norm;
+		}
+		return unit;
+	}
+
+	/**
+	 * The best candidate found by a query. Equal scores go to the earlier
+	 * position, matching the order of the linear scan.
+	 */
+	private class Best {
+		private int position = -1;
+		private double score;
+
+		private void offer(int candidate, double candidateScore) {
+			boolean better = position < 0
+					|| ((algorithm == SimilarityFinder.SimilarityAlgorithm.COSINE) ? candidateScore > score
+							: candidateScore < score)
+					|| (candidateScore == score && candidate < position);
+			if (better) {
+				position = candidate;
+				score = candidateScore;
+			}
+		}
+	}
+}
@@ -0,0 +1,160 @@
+package ie.atu.sw;
+
+import java.util.HashMap;
+import java.util.Set;
+
+/**
+ * PhraseMatcher finds multi-word phrases from an embeddings vocabulary in a
+ * sequence of tokens. Phrase entries such as "new_york" are split on the
+ * separator and stored in a token trie, so that the longest phrase starting at
+ * a token can be found with one map lookup per token.
+ *
+ * The trie is built once and only read afterwards, so a single instance can be
+ * shared by multiple threads.
+ */
+public class PhraseMatcher {
+	// Separator used between the words of a phrase in the embeddings file
+	public static final String SEPARATOR = "_";
+
+	private final Node root = new Node(0);
+	private int phraseCount = 0;
+	private int maxLength = 0;
+
+	/**
+	 * Builds a PhraseMatcher from the multi-word keys in the given vocabulary.
+	 * Keys without a separator are ignored, as single words are looked up
+	 * directly.
+	 *
+	 * Running time: O(n), where n is the total length of the keys.
+	 *
+	 * @param vocabulary The keys of the embeddings map.
+	 * @return A PhraseMatcher containing every phrase in the vocabulary.
+	 */
+	public static PhraseMatcher fromVocabulary(Set<String> vocabulary) {
+		PhraseMatcher matcher = new PhraseMatcher();
+		for (String key : vocabulary) {
+			if (key.contains(SEPARATOR)) {
+				matcher.add(key);
+			}
+		}
+		return matcher;
+	}
+
+	/**
+	 * Adds a phrase to the trie. Lines are matched in lowercase, so the tokens
+	 * are lowercased; if two keys only differ in case the lowercase key is kept.
+	 *
+	 * @param key The phrase key as it appears in the vocabulary.
+	 */
+	private void add(String key) {
+		String[] tokens = key.toLowerCase().split(SEPARATOR);
+		if (tokens.length < 2) {
+			return; // Leading or trailing separators only
+		}
+		Node node = root;
+		for (String token : tokens) {
+			if (token.isEmpty()) {
+				return; // Repeated separators cannot match whitespace-split tokens
+			}
+			node = node.child(token);
+		}
+		if (node.key == null) {
+			phraseCount++;
+		}
+		if (node.key == null || key.equals(key.toLowerCase())) {
+			node.key = key;
+		}
+		maxLength = Math.max(maxLength, tokens.length);
+	}
+
+	/**
+	 * Finds the longest phrase starting at the given token.
+	 *
+	 * Running time: O(k), where k is the number of words in the longest phrase.
+	 *
+	 * @param tokens The lowercased tokens of a line.
+	 * @param start  The index of the first token of the phrase.
+	 * @return The node for the longest matching phrase, or null if no phrase
+	 *         starts at the given token.
+	 */
+	public Node longestMatch(String[] tokens, int start) {
+		Node node = root;
+		Node match = null;
+		for (int i = start; i < tokens.length && node.children != null; i++) {
+			node = node.children.get(tokens[i]);
+			if (node == null) {
+				break;
+			}
+			if (node.key != null) {
+				match = node;
+			}
+		}
+		return match;
+	}
+
+	/**
+	 * Returns true if no phrases were found in the vocabulary.
+	 *
+	 * @return True if the matcher is empty.
+	 */
+	public boolean isEmpty() {
+		return phraseCount == 0;
+	}
+
+	/**
+	 * Returns the number of phrases in the matcher.
+	 *
+	 * @return The number of phrases.
+	 */
+	public int getPhraseCount() {
+		return phraseCount;
+	}
+
+	/**
+	 * Returns the number of words in the longest phrase.
+	 *
+	 * @return The maximum phrase length in words.
+	 */
+	public int getMaxLength() {
+		return maxLength;
+	}
+
+	/**
+	 * A node in the token trie. Nodes that end a phrase hold the vocabulary key
+	 * of that phrase.
+	 */
+	public static class Node {
+		private final int length;
+		private HashMap<String, Node> children;
+		private String key;
+
+		private Node(int length) {
+			this.length = length;
+		}
+
+		private Node child(String token) {
+			if (children == null) {
+				children = new HashMap<>(4);
+			}
+			return children.computeIfAbsent(token, t -> new Node(length + 1));
+		}
+
+		/**
+		 * Returns the vocabulary key of the phrase ending at this node.
+		 *
+		 * @return The phrase key, for example "new_york".
+		 */
+		public String getKey() {
+			return key;
+		}
+
+		/**
+		 * Returns the number of words in the phrase ending at this node.
+		 *
+		 * @return The phrase length in words.
+		 */
+		public int getLength() {
+			return length;
+		}
+	}
+}
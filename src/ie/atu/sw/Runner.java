@@ -1,16 +1,22 @@
 package ie.atu.sw;
 
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Scanner;
-import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Runner serves as the entry point for the Virtual Threaded Text Simplifier
  * application. It provides a command-line interface (CLI) for users to: -
- * Specify file paths for the embeddings file, Google-1000 file, input text
- * file, and output file. - Choose a similarity algorithm (Cosine Similarity or
- * Euclidean Distance). - Execute the text simplification process.
+ * Specify file paths for the embeddings file, one or more target word list
+ * files (such as Google-1000), input text file, and output file. - Choose a
+ * similarity algorithm (Cosine Similarity or Euclidean Distance) and target
+ * vocabulary. - Execute the text simplification process.
  */
 public class Runner {
+	// Embeddings and target vocabularies kept loaded between executions
+	private static VocabularyRegistry registry;
 
 	/**
 	 * The main method initiates the CLI and handles user interactions.
@@ -20,15 +26,16 @@ public class Runner {
 
 		// Default file paths with options for user input
 		String embeddingsFile = null;
-		String googleWordsFile = null;
+		List<String> googleWordsFiles = new ArrayList<>();
 		String inputTextFile = null;
 		String outputFile = null;
+		boolean subwordFallback = false;
 
 		// Infinite loop to display the menu until the user chooses to quit
 		while (true) {
-			displayMenu();
+			displayMenu(subwordFallback);
 			System.out.print(ConsoleColour.BLACK_BOLD_BRIGHT);
-			System.out.print("Select Option [1-6]: ");
+			System.out.print("Select Option [1-7]: ");
 			int choice = scanner.nextInt();
 			scanner.nextLine();
 			switch (choice) {
@@ -37,11 +44,21 @@ public class Runner {
 				System.out.print(ConsoleColour.GREEN + "Enter the path to the embeddings file: " + ConsoleColour.RESET);
 				embeddingsFile = scanner.nextLine();
 			}
-			// Google-1000 word list file path
+			// Target word list file path, such as the Google-1000 words
 			case 2 -> {
-				System.out.print(ConsoleColour.GREEN + "Enter the path to the Google-1000 word list file: "
+				System.out.print(ConsoleColour.GREEN
+						+ "Enter the path to the Google-1000 (or other target) word list file (empty to clear): "
 						+ ConsoleColour.RESET);
-				googleWordsFile = scanner.nextLine();
+				String googleWordsFile = scanner.nextLine().trim();
+				if (googleWordsFile.isEmpty()) {
+					// An empty path clears the list so that a wrong entry can be replaced
+					googleWordsFiles.clear();
+					System.out.println(ConsoleColour.YELLOW + "Cleared the target word list files." + ConsoleColour.RESET);
+				} else if (!Files.isRegularFile(Path.of(googleWordsFile))) {
+					System.out.println(ConsoleColour.RED + "File not found: " + googleWordsFile + ConsoleColour.RESET);
+				} else if (!googleWordsFiles.contains(googleWordsFile)) {
+					googleWordsFiles.add(googleWordsFile);
+				}
 			}
 			// Input text file path
 			case 3 -> {
@@ -54,9 +71,16 @@ public class Runner {
 				outputFile = scanner.nextLine();
 			}
 			// Execute simplification
-			case 5 -> executeSimplification(embeddingsFile, googleWordsFile, inputTextFile, outputFile);
-			// Quit
+			case 5 -> executeSimplification(embeddingsFile, googleWordsFiles, inputTextFile, outputFile,
+					subwordFallback);
+			// Simplify words without an embedding from their character n-grams
 			case 6 -> {
+				subwordFallback = !subwordFallback;
+				System.out.println(ConsoleColour.GREEN + "Misspelled word fallback is now "
+						+ (subwordFallback ? "ON" : "OFF") + "." + ConsoleColour.RESET);
+			}
+			// Quit
+			case 7 -> {
 				System.out.println(ConsoleColour.YELLOW + "Exiting the program. Goodbye!" + ConsoleColour.RESET);
 				scanner.close();
 				return;
@@ -70,8 +94,10 @@ public class Runner {
 
 	/**
 	 * Displays the application menu with available options.
+	 *
+	 * @param subwordFallback The current state of the misspelled word fallback.
 	 */
-	private static void displayMenu() {
+	private static void displayMenu(boolean subwordFallback) {
 		System.out.println(ConsoleColour.WHITE);
 		System.out.println("************************************************************");
 		System.out.println("*     ATU - Dept. of Computer Science & Applied Physics    *");
@@ -80,74 +106,63 @@ public class Runner {
 		System.out.println("*                                                          *");
 		System.out.println("************************************************************");
 		System.out.println("(1) Specify Embeddings File");
-		System.out.println("(2) Specify Google 1000 File");
+		System.out.println("(2) Add Google 1000 (or Other Target Word List) File");
 		System.out.println("(3) Specify Input Text File");
 		System.out.println("(4) Specify Output File");
 		System.out.println("(5) Execute Simplification");
-		System.out.println("(6) Quit");
+		System.out.println("(6) Toggle Misspelled Word Fallback [" + (subwordFallback ? "ON" : "OFF") + "]");
+		System.out.println("(7) Quit");
 		System.out.println(ConsoleColour.RESET);
 	}
 
 	/**
-	 * Executes the text simplification process by: - Loading the embeddings and
-	 * Google-1000 word list. - Mapping embeddings to the Google-1000 words. -
-	 * Simplifying the input text file. - Saving the simplified text to the
-	 * specified output file.
+	 * Executes the text simplification process as a graph of concurrent stages:
+	 * - Loading the embeddings, or reusing them if the same file was loaded
+	 * before, while the input text is read. - Capturing the target word vectors as
+	 * the embeddings are parsed. - Simplifying the input text with the selected
+	 * target vocabulary as it is read. - Saving the simplified text to the
+	 * specified output file as it is produced.
 	 *
-	 * @param embeddingsFile  The path to the embeddings file.
-	 * @param googleWordsFile The path to the Google-1000 word list file.
-	 * @param inputTextFile   The path to the input text file.
-	 * @param outputFile      The path to the output text file.
+	 * @param embeddingsFile   The path to the embeddings file.
+	 * @param googleWordsFiles The paths to the target word list files.
+	 * @param inputTextFile    The path to the input text file.
+	 * @param outputFile       The path to the output text file.
+	 * @param subwordFallback  True to simplify words without an embedding from
+	 *                         their character n-grams.
 	 */
-	private static void executeSimplification(String embeddingsFile, String googleWordsFile, String inputTextFile,
-			String outputFile) {
-		if (embeddingsFile == null || googleWordsFile == null || inputTextFile == null) {
+	private static void executeSimplification(String embeddingsFile, List<String> googleWordsFiles,
+			String inputTextFile, String outputFile, boolean subwordFallback) {
+		if (embeddingsFile == null || googleWordsFiles.isEmpty() || inputTextFile == null) {
 			System.out.println(
 					ConsoleColour.RED + "Please specify all required files before execution." + ConsoleColour.RESET);
 			return;
 		}
-		// Handle user selection of similarity algorithm
-		SimilarityFinder.SimilarityAlgorithm algorithm = chooseSimilarityAlgorithm();
+		// Handle user selection of similarity algorithm and target vocabulary
+		List<SimilarityFinder.SimilarityAlgorithm> algorithms = chooseSimilarityAlgorithms();
+		String vocabularyName = chooseVocabulary(googleWordsFiles);
+		TaskScheduler.getShared().resetStats();
+		FileStreams.resetStats();
 		try {
-			// Load embeddings, Google-1000 words, and input text
-			System.out.println(ConsoleColour.BLUE + "Loading embeddings..." + ConsoleColour.RESET);
-			EmbeddingProcessor embeddingProcessor = new EmbeddingProcessor();
-			embeddingProcessor.load(embeddingsFile);
-
-			// Load Google 1000 words
-			System.out.println(ConsoleColour.BLUE + "\nLoading Google-1000 words..." + ConsoleColour.RESET);
-			GoogleProcessor googleProcessor = new GoogleProcessor();
-			googleProcessor.load(googleWordsFile);
-
-			// Map embeddings to Google-1000 words
-			System.out.println(ConsoleColour.BLUE + "\nMapping embeddings..." + ConsoleColour.RESET);
-			Mapper mapper = new Mapper();
-			var googleEmbeddings = mapper.generateMapping(embeddingProcessor.getEmbeddings(),
-					googleProcessor.getGoogleWords());
-
-			// Load input text
-			System.out.println(ConsoleColour.BLUE + "\nLoading input text..." + ConsoleColour.RESET);
-			TextProcessor textProcessor = new TextProcessor();
-			textProcessor.load(inputTextFile);
-
-			// Initialise the similarity finder and text simplifier
-			System.out.println(ConsoleColour.BLUE + "\nSimplifying text using " + algorithm + " similarity..."
-					+ ConsoleColour.RESET);
-			SimilarityFinder similarityFinder = new SimilarityFinder(algorithm);
-			TextSimplifier textSimplifier = new TextSimplifier(similarityFinder);
-
-			// Simplify the lines using the processed lines, embeddings, and Google-1000
-			// embeddings
-			CopyOnWriteArrayList<String> simplifiedLines = textSimplifier.simplifyLines(
-					textProcessor.getProcessedLines(), embeddingProcessor.getEmbeddings(), googleEmbeddings);
-
-			// Save the simplified text to the output file
-			System.out.println(ConsoleColour.BLUE + "\nSaving simplified text..." + ConsoleColour.RESET);
-			TextProcessor.saveToFile(outputFile, simplifiedLines);
+			String similarity = (algorithms.size() == 1) ? algorithms.get(0) + " similarity"
+					: "and comparing " + algorithms;
+			System.out.println(ConsoleColour.BLUE + "Simplifying text " + (algorithms.size() == 1 ? "using " : "")
+					+ similarity + " with " + vocabularyName + "..." + ConsoleColour.RESET);
+			if (registry != null && registry.getEmbeddingsFile().equals(embeddingsFile)) {
+				System.out.println(ConsoleColour.BLUE + "Reusing loaded embeddings..." + ConsoleColour.RESET);
+			}
+			SimplificationPipeline pipeline = new SimplificationPipeline(algorithms, subwordFallback);
+			registry = pipeline.run(registry, embeddingsFile, googleWordsFiles, vocabularyName, inputTextFile,
+					outputFile);
 
 			// Display success message
-			System.out.println(
-					ConsoleColour.GREEN + "Simplified text has been saved to: " + outputFile + ConsoleColour.RESET);
+			System.out.println(ConsoleColour.GREEN
+					+ ((algorithms.size() == 1) ? "Simplified text has been saved to: "
+							: "Simplified texts and disagreement report have been saved alongside: ")
+					+ outputFile + ConsoleColour.RESET);
+
+			// Display task counts, scheduling overhead and input throughput
+			TaskScheduler.getShared().printReport();
+			FileStreams.printReport();
 		} catch (Exception e) {
 			// Display error message
 			System.err.println(ConsoleColour.RED + "An error occurred: " + e.getMessage() + ConsoleColour.RESET);
@@ -155,22 +170,51 @@ public class Runner {
 	}
 
 	/**
-	 * Prompts the user to select a similarity algorithm for text simplification.
+	 * Prompts the user to select a target vocabulary if more than one word list
+	 * has been specified.
+	 *
+	 * @param googleWordsFiles The paths to the target word list files.
+	 * @return The name of the selected target vocabulary.
+	 */
+	private static String chooseVocabulary(List<String> googleWordsFiles) {
+		if (googleWordsFiles.size() == 1) {
+			return googleWordsFiles.get(0);
+		}
+		Scanner scanner = new Scanner(System.in);
+		// Display the registered vocabularies
+		System.out.println(ConsoleColour.YELLOW + "\nChoose Target Vocabulary:" + ConsoleColour.RESET);
+		for (int i = 0; i < googleWordsFiles.size(); i++) {
+			System.out.println("(" + (i + 1) + ") " + googleWordsFiles.get(i));
+		}
+		System.out.print("Select Option [1-" + googleWordsFiles.size() + "]: ");
+		// Read user input, falling back to the first vocabulary
+		int choice = scanner.nextInt();
+		scanner.nextLine();
+		return googleWordsFiles.get((choice >= 1 && choice <= googleWordsFiles.size()) ? choice - 1 : 0);
+	}
+
+	/**
+	 * Prompts the user to select a similarity algorithm for text simplification,
+	 * or to compare both algorithms in a single pass.
 	 *
-	 * @return The selected similarity algorithm.
+	 * @return The selected similarity algorithms.
 	 */
-	private static SimilarityFinder.SimilarityAlgorithm chooseSimilarityAlgorithm() {
+	private static List<SimilarityFinder.SimilarityAlgorithm> chooseSimilarityAlgorithms() {
 		Scanner scanner = new Scanner(System.in);
 		// Display the options for similarity algorithms
 		System.out.println(ConsoleColour.YELLOW + "\nChoose Similarity Algorithm:" + ConsoleColour.RESET);
 		System.out.println("(1) Cosine Similarity");
 		System.out.println("(2) Euclidean Distance");
-		System.out.print("Select Option [1-2]: ");
+		System.out.println("(3) Compare Cosine and Euclidean");
+		System.out.print("Select Option [1-3]: ");
 		// Read user input
 		int choice = scanner.nextInt();
 		scanner.nextLine();
-		// Return the selected algorithm
-		return (choice == 1) ? SimilarityFinder.SimilarityAlgorithm.COSINE
-				: SimilarityFinder.SimilarityAlgorithm.EUCLIDEAN;
+		// Return the selected algorithms
+		return switch (choice) {
+		case 1 -> List.of(SimilarityFinder.SimilarityAlgorithm.COSINE);
+		case 3 -> List.of(SimilarityFinder.SimilarityAlgorithm.values());
+		default -> List.of(SimilarityFinder.SimilarityAlgorithm.EUCLIDEAN);
+		};
 	}
 }
@@ -0,0 +1,572 @@
+package ie.atu.sw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * ShardCoordinator simplifies large inputs by splitting them into shards of
+ * lines and handing the shards to several ShardWorker processes on the same
+ * machine. Each worker loads the embeddings once and simplifies every shard it
+ * is given. The simplified shards are written back in input order, and shards
+ * held by a worker that dies, whether while loading or while simplifying, or
+ * that does not reply in time, are retried on a new worker.
+ *
+ * Usage: ShardCoordinator -e embeddings -g google-1000 -o output-dir [-a
+ * COSINE|EUCLIDEAN] [-w workers] [-s shard-lines] [-x worker-heap] [--subwords]
+ * [--scaling] input...
+ */
+public class ShardCoordinator {
+	// Number of times a shard is attempted before the job fails
+	private static final int MAX_ATTEMPTS = 3;
+
+	// Time a worker may take to simplify one shard before it is killed, in
+	// seconds, overridable with a system property
+	private static final int SHARD_TIMEOUT_SECONDS = Integer.getInteger("simplifier.shardTimeout", 300);
+
+	// Time a worker may take to load the embeddings and report that it is
+	// ready, in seconds, overridable with a system property
+	private static final int STARTUP_TIMEOUT_SECONDS = Integer.getInteger("simplifier.workerStartTimeout", 300);
+
+	// Number of shards per worker that may be read ahead of the writer
+	private static final int SHARDS_PER_WORKER = 4;
+
+	private final String embeddingsFile;
+	private final String googleWordsFile;
+	private final SimilarityFinder.SimilarityAlgorithm algorithm;
+	private final int shardLines;
+	private final String workerHeap;
+	private final boolean subwordFallback;
+
+	/**
+	 * ShardCoordinator constructor.
+	 *
+	 * @param embeddingsFile  The path to the embeddings file.
+	 * @param googleWordsFile The path to the Google-1000 word list file.
+	 * @param algorithm       The similarity algorithm used by the workers.
+	 * @param shardLines      The number of lines in each shard.
+	 * @param workerHeap      The maximum heap size of each worker, for example
+	 *                        "2g", or null to use the JVM default.
+	 */
+	public ShardCoordinator(String embeddingsFile, String googleWordsFile, SimilarityFinder.SimilarityAlgorithm algorithm,
+			int shardLines, String workerHeap) {
+		this(embeddingsFile, googleWordsFile, algorithm, shardLines, workerHeap, false);
+	}
+
+	/**
+	 * ShardCoordinator constructor with the subword fallback setting.
+	 *
+	 * @param embeddingsFile  The path to the embeddings file.
+	 * @param googleWordsFile The path to the Google-1000 word list file.
+	 * @param algorithm       The similarity algorithm used by the workers.
+	 * @param shardLines      The number of lines in each shard.
+	 * @param workerHeap      The maximum heap size of each worker, for example
+	 *                        "2g", or null to use the JVM default.
+	 * @param subwordFallback True if the workers simplify words without an
+	 *                        embedding from their character n-grams.
+	 */
+	public ShardCoordinator(String embeddingsFile, String googleWordsFile, SimilarityFinder.SimilarityAlgorithm algorithm,
+			int shardLines, String workerHeap, boolean subwordFallback) {
+		if (shardLines < 1) {
+			throw new IllegalArgumentException("Shard size must be at least 1 line: " + shardLines);
+		}
+		this.embeddingsFile = embeddingsFile;
+		this.googleWordsFile = googleWordsFile;
+		this.algorithm = algorithm;
+		this.shardLines = shardLines;
+		this.workerHeap = workerHeap;
+		this.subwordFallback = subwordFallback;
+	}
+
+	/**
+	 * Simplifies each input file into the output file at the same position.
+	 *
+	 * A reader reads the inputs one shard at a time and queues the shards for the
+	 * workers. Each worker slot starts its worker process on demand and keeps
+	 * taking shards until every shard is done. If a worker dies its shard is put
+	 * back at the front of the queue and the slot starts a new worker. A writer
+	 * appends the simplified shards to their output file in input order as soon
+	 * as every earlier shard has been written. At most SHARDS_PER_WORKER shards
+	 * per worker are held between the reader and the writer, so the memory used
+	 * does not grow with the size of the inputs.
+	 *
+	 * Running time: O(n / w), where n is the number of lines and w is the number
+	 * of workers, plus the time each worker takes to load the embeddings.
+	 *
+	 * @param inputFiles  The paths of the input text files.
+	 * @param outputFiles The paths of the output files.
+	 * @param workers     The number of worker processes.
+	 * @return The elapsed time in nanoseconds.
+	 * @throws IOException If a file cannot be read or written, or a shard fails
+	 *                     on every attempt.
+	 */
+	public long simplify(List<String> inputFiles, List<String> outputFiles, int workers) throws IOException {
+		if (inputFiles.size() != outputFiles.size()) {
+			throw new IllegalArgumentException("Each input file needs an output file");
+		}
+		if (workers < 1) {
+			throw new IllegalArgumentException("At least one worker is required: " + workers);
+		}
+		long start = System.nanoTime();
+
+		ShardQueue queue = new ShardQueue(workers * SHARDS_PER_WORKER);
+		try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+			scope.fork(() -> {
+				readShards(inputFiles, queue);
+				return null;
+			});
+			// Each slot drives one worker process at a time
+			for (int slot = 0; slot < workers; slot++) {
+				final int slotId = slot;
+				scope.fork(() -> {
+					runSlot(slotId, queue);
+					return null;
+				});
+			}
+			scope.fork(() -> {
+				writeShards(outputFiles, queue);
+				return null;
+			});
+			scope.join();
+			scope.throwIfFailed();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Sharded simplification interrupted", e);
+		} catch (ExecutionException e) {
+			throw new IOException("Sharded simplification failed: " + e.getCause().getMessage(), e.getCause());
+		}
+
+		long elapsed = System.nanoTime() - start;
+		System.out.printf("Simplified %d shards with %d workers in %.2fs (%d retries)%n", queue.produced.get(), workers,
+				elapsed / 1e9, queue.retries.get());
+		return elapsed;
+	}
+
+	/**
+	 * Reads the input files in order into shards of lowercased lines, waiting
+	 * for room in the window before each shard is queued.
+	 *
+	 * Running time: O(n), where n is the number of lines in the files.
+	 */
+	private void readShards(List<String> inputFiles, ShardQueue queue) throws IOException, InterruptedException {
+		try {
+			for (int file = 0; file < inputFiles.size(); file++) {
+				try (BufferedReader reader = FileStreams.openReader(inputFiles.get(file))) {
+					List<String> lines = new ArrayList<>(shardLines);
+					String line;
+					while ((line = reader.readLine()) != null) {
+						lines.add(line.toLowerCase());
+						if (lines.size() == shardLines) {
+							queue.offer(file, lines);
+							lines.clear();
+						}
+					}
+					if (!lines.isEmpty()) {
+						queue.offer(file, lines);
+					}
+				}
+			}
+		} finally {
+			queue.readerDone = true;
+		}
+	}
+
+	/**
+	 * Takes shards from the queue and sends them to this slot's worker until every
+	 * shard is done.
+	 */
+	private void runSlot(int slotId, ShardQueue queue) throws IOException, InterruptedException {
+		WorkerConnection worker = null;
+		try {
+			while (!queue.isDone(queue.completed)) {
+				Shard shard = queue.pending.poll(100, TimeUnit.MILLISECONDS);
+				if (shard == null) {
+					continue; // The reader or another slot may still queue a shard
+				}
+				try {
+					if (worker == null) {
+						worker = launchWorker();
+					}
+					shard.result = worker.simplify(shard.id, shard.lines);
+					queue.completed.incrementAndGet();
+					queue.finished.put(shard);
+				} catch (IOException e) {
+					// The worker died while starting, died or hung while simplifying, or
+					// broke the protocol, so replace it
+					if (worker != null) {
+						worker.destroy();
+						worker = null;
+					}
+					if (Thread.currentThread().isInterrupted()) {
+						throw e; // The job was cancelled, so there is nothing to retry
+					}
+					if (++shard.attempts >= MAX_ATTEMPTS) {
+						throw new IOException("Shard " + shard.id + " failed " + MAX_ATTEMPTS + " times: " + e.getMessage(),
+								e);
+					}
+					System.err.println("Worker " + slotId + " failed on shard " + shard.id + ", retrying: " + e.getMessage());
+					queue.retries.incrementAndGet();
+					// Retry first, as the writer may be waiting for this shard
+					queue.pending.putFirst(shard);
+				}
+			}
+		} finally {
+			if (worker != null) {
+				worker.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Writes the simplified shards to their output files in input order, opening
+	 * each output file when its first shard is due. Output files whose input has
+	 * no lines are created empty.
+	 *
+	 * Running time: O(n), where n is the number of lines in the files.
+	 */
+	private void writeShards(List<String> outputFiles, ShardQueue queue) throws IOException, InterruptedException {
+		// Shards that finished before an earlier shard, by id
+		Map<Integer, Shard> waiting = new HashMap<>();
+		AtomicInteger written = new AtomicInteger();
+		int file = -1;
+		BufferedWriter writer = null;
+		try {
+			while (!queue.isDone(written)) {
+				Shard shard = queue.finished.poll(100, TimeUnit.MILLISECONDS);
+				if (shard != null) {
+					waiting.put(shard.id, shard);
+				}
+				while ((shard = waiting.remove(written.get())) != null) {
+					// Move on to the shard's file, creating any empty files in between
+					while (file < shard.file) {
+						if (writer != null) {
+							writer.close();
+						}
+						writer = FileStreams.openWriter(outputFiles.get(++file));
+					}
+					for (String line : shard.result) {
+						writer.write(line);
+						writer.newLine();
+					}
+					written.incrementAndGet();
+					queue.window.release();
+				}
+			}
+			while (file < outputFiles.size() - 1) {
+				if (writer != null) {
+					writer.close();
+				}
+				writer = FileStreams.openWriter(outputFiles.get(++file));
+			}
+		} finally {
+			if (writer != null) {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Starts a worker JVM using the same Java installation and class path as this
+	 * process, and connects to it once it has loaded the embeddings.
+	 *
+	 * @return A connection to the new worker.
+	 * @throws IOException          If the worker cannot be started, or exits or
+	 *                              hangs before it is ready.
+	 * @throws InterruptedException If interrupted while waiting for the worker.
+	 */
+	private WorkerConnection launchWorker() throws IOException, InterruptedException {
+		List<String> command = new ArrayList<>();
+		command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+		command.add("--enable-preview");
+		if (workerHeap != null) {
+			command.add("-Xmx" + workerHeap);
+		}
+		command.add("-cp");
+		command.add(System.getProperty("java.class.path"));
+		command.add(ShardWorker.class.getName());
+		command.add(embeddingsFile);
+		command.add(googleWordsFile);
+		command.add(algorithm.name());
+		if (subwordFallback) {
+			command.add(ShardWorker.SUBWORDS);
+		}
+
+		Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		// Wait for the worker to report its port on a separate thread, so that a
+		// worker which hangs while loading can be killed
+		CompletableFuture<Integer> ready = new CompletableFuture<>();
+		Thread.ofVirtual().start(() -> {
+			try {
+				BufferedReader stdout = new BufferedReader(
+						new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8));
+				String line;
+				while ((line = stdout.readLine()) != null) {
+					if (line.startsWith(ShardWorker.READY + " ")) {
+						ready.complete(Integer.parseInt(line.substring(ShardWorker.READY.length() + 1).trim()));
+						return;
+					}
+				}
+				ready.completeExceptionally(new IOException("Worker exited before it was ready"));
+			} catch (IOException e) {
+				ready.completeExceptionally(e);
+			} catch (NumberFormatException e) {
+				ready.completeExceptionally(new IOException("Invalid worker port: " + e.getMessage(), e));
+			}
+		});
+		try {
+			int port = ready.get(STARTUP_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+			return new WorkerConnection(process, new Socket(InetAddress.getLoopbackAddress(), port));
+		} catch (TimeoutException e) {
+			process.destroyForcibly();
+			throw new IOException("Worker was not ready within " + STARTUP_TIMEOUT_SECONDS + "s", e);
+		} catch (ExecutionException e) {
+			process.destroyForcibly();
+			throw (e.getCause() instanceof IOException io) ? io : new IOException(e.getCause());
+		} catch (IOException | InterruptedException e) {
+			process.destroyForcibly();
+			throw e;
+		}
+	}
+
+	/**
+	 * Shard holds a run of lines from one input file and, once done, the
+	 * simplified lines.
+	 */
+	private static class Shard {
+		private final int id;
+		private final int file;
+		private final CopyOnWriteArrayList<String> lines;
+		private CopyOnWriteArrayList<String> result;
+		private int attempts;
+
+		private Shard(int id, int file, CopyOnWriteArrayList<String> lines) {
+			this.id = id;
+			this.file = file;
+			this.lines = lines;
+		}
+	}
+
+	/**
+	 * ShardQueue holds the state shared by the reader, the worker slots and the
+	 * writer of one job.
+	 */
+	private static class ShardQueue {
+		// Permits for the shards read but not yet written
+		private final Semaphore window;
+		private final LinkedBlockingDeque<Shard> pending = new LinkedBlockingDeque<>();
+		private final LinkedBlockingQueue<Shard> finished = new LinkedBlockingQueue<>();
+		private final AtomicInteger produced = new AtomicInteger();
+		private final AtomicInteger completed = new AtomicInteger();
+		private final AtomicInteger retries = new AtomicInteger();
+		private volatile boolean readerDone;
+
+		private ShardQueue(int window) {
+			this.window = new Semaphore(window);
+		}
+
+		/**
+		 * Queues a copy of the lines as the next shard, waiting for room in the
+		 * window.
+		 */
+		private void offer(int file, List<String> lines) throws InterruptedException {
+			window.acquire();
+			pending.put(new Shard(produced.getAndIncrement(), file, new CopyOnWriteArrayList<>(lines)));
+		}
+
+		/**
+		 * Returns true once every shard has been read and the counter has reached
+		 * the number of shards.
+		 */
+		private boolean isDone(AtomicInteger counter) {
+			return readerDone && counter.get() == produced.get();
+		}
+	}
+
+	/**
+	 * WorkerConnection holds a worker process and the socket connected to it.
+	 */
+	private static class WorkerConnection {
+		private final Process process;
+		private final Socket socket;
+		private final DataInputStream in;
+		private final DataOutputStream out;
+
+		private WorkerConnection(Process process, Socket socket) throws IOException {
+			this.process = process;
+			this.socket = socket;
+			// A worker that hangs fails the shard instead of blocking the slot forever
+			socket.setSoTimeout((int) TimeUnit.SECONDS.toMillis(SHARD_TIMEOUT_SECONDS));
+			this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			this.out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+		}
+
+		/**
+		 * Sends a shard to the worker and waits for the simplified lines.
+		 */
+		private CopyOnWriteArrayList<String> simplify(int shardId, CopyOnWriteArrayList<String> lines)
+				throws IOException {
+			out.writeInt(shardId);
+			ShardWorker.writeLines(out, lines);
+			out.flush();
+			CopyOnWriteArrayList<String> simplified;
+			try {
+				int replyId = in.readInt();
+				if (replyId != shardId) {
+					throw new IOException("Expected shard " + shardId + " but received " + replyId);
+				}
+				simplified = ShardWorker.readLines(in);
+			} catch (EOFException e) {
+				throw new IOException("Worker closed the connection", e);
+			} catch (SocketTimeoutException e) {
+				throw new IOException("Worker did not reply within " + SHARD_TIMEOUT_SECONDS + "s", e);
+			}
+			if (simplified.size() != lines.size()) {
+				throw new IOException("Shard " + shardId + " returned " + simplified.size() + " of " + lines.size()
+						+ " lines");
+			}
+			return simplified;
+		}
+
+		/**
+		 * Asks the worker to exit, killing it if it does not stop in time.
+		 */
+		private void shutdown() {
+			try {
+				out.writeInt(ShardWorker.SHUTDOWN);
+				out.flush();
+				socket.close();
+				if (!process.waitFor(5, TimeUnit.SECONDS)) {
+					process.destroyForcibly();
+				}
+			} catch (IOException e) {
+				destroy();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				destroy();
+			}
+		}
+
+		/**
+		 * Kills the worker and closes the socket.
+		 */
+		private void destroy() {
+			process.destroyForcibly();
+			try {
+				socket.close();
+			} catch (IOException e) {
+				// The socket is already unusable
+			}
+		}
+	}
+
+	/**
+	 * Runs the coordinator from the command line. With --scaling the job is run
+	 * once for every worker count from 1 to the requested number of workers and
+	 * the speedup over a single worker is printed.
+	 *
+	 * @param args The command line arguments described in the class comment.
+	 */
+	public static void main(String[] args) {
+		String embeddingsFile = null;
+		String googleWordsFile = null;
+		String outputDir = null;
+		SimilarityFinder.SimilarityAlgorithm algorithm = SimilarityFinder.SimilarityAlgorithm.COSINE;
+		int workers = Runtime.getRuntime().availableProcessors();
+		int shardLines = 2000;
+		String workerHeap = null;
+		boolean scaling = false;
+		boolean subwordFallback = false;
+		List<String> inputFiles = new ArrayList<>();
+		try {
+			for (int i = 0; i < args.length; i++) {
+				switch (args[i]) {
+				case "-e" -> embeddingsFile = args[++i];
+				case "-g" -> googleWordsFile = args[++i];
+				case "-o" -> outputDir = args[++i];
+				case "-a" -> algorithm = SimilarityFinder.SimilarityAlgorithm.valueOf(args[++i].toUpperCase());
+				case "-w" -> workers = Integer.parseInt(args[++i]);
+				case "-s" -> shardLines = Integer.parseInt(args[++i]);
+				case "-x" -> workerHeap = args[++i];
+				case "--scaling" -> scaling = true;
+				case ShardWorker.SUBWORDS -> subwordFallback = true;
+				default -> inputFiles.add(args[i]);
+				}
+			}
+			if (embeddingsFile == null || googleWordsFile == null || outputDir == null || inputFiles.isEmpty()) {
+				throw new IllegalArgumentException("Missing required arguments");
+			}
+			// Each output is named after its input, so two inputs with the same name
+			// would overwrite each other's output
+			Set<Path> names = new HashSet<>();
+			for (String input : inputFiles) {
+				if (!names.add(Path.of(input).getFileName())) {
+					throw new IllegalArgumentException("Two inputs are named " + Path.of(input).getFileName());
+				}
+			}
+		} catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+			System.err.println(ConsoleColour.RED + "Invalid arguments: " + e.getMessage() + ConsoleColour.RESET);
+			System.err.println("Usage: ShardCoordinator -e <embeddings> -g <google-1000> -o <output dir> "
+					+ "[-a COSINE|EUCLIDEAN] [-w workers] [-s shard lines] [-x worker heap] [--subwords] [--scaling] <input>...");
+			System.exit(2);
+			return;
+		}
+
+		try {
+			Files.createDirectories(Path.of(outputDir));
+			List<String> outputFiles = new ArrayList<>();
+			for (String input : inputFiles) {
+				outputFiles.add(Path.of(outputDir).resolve(Path.of(input).getFileName()).toString());
+			}
+			ShardCoordinator coordinator = new ShardCoordinator(embeddingsFile, googleWordsFile, algorithm, shardLines,
+					workerHeap, subwordFallback);
+			if (!scaling) {
+				coordinator.simplify(inputFiles, outputFiles, workers);
+			} else {
+				// Measure the scaling curve from one worker up to the requested count
+				long baseline = 0;
+				List<String> results = new ArrayList<>();
+				for (int count = 1; count <= workers; count++) {
+					long elapsed = coordinator.simplify(inputFiles, outputFiles, count);
+					baseline = (count == 1) ? elapsed : baseline;
+					results.add(String.format("  workers=%-3d time=%.2fs speedup=%.2fx", count, elapsed / 1e9,
+							(double) baseline / elapsed));
+				}
+				System.out.println(ConsoleColour.CYAN + "\nScaling curve:" + ConsoleColour.RESET);
+				results.forEach(System.out::println);
+			}
+			System.out.println(
+					ConsoleColour.GREEN + "Simplified text has been saved to: " + outputDir + ConsoleColour.RESET);
+		} catch (IOException e) {
+			System.err.println(ConsoleColour.RED + "An error occurred: " + e.getMessage() + ConsoleColour.RESET);
+			System.exit(1);
+		}
+	}
+}
@@ -0,0 +1,124 @@
+package ie.atu.sw;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * ShardWorker is the worker process started by the ShardCoordinator. It loads
+ * the embeddings and Google-1000 words once, listens on a local socket and
+ * simplifies every shard of lines it receives until the coordinator closes the
+ * connection.
+ *
+ * Messages are a shard id followed by a line count and the lines as
+ * length-prefixed UTF-8 bytes. A negative shard id asks the worker to exit.
+ */
+public class ShardWorker {
+	// Printed on standard output once the worker is ready to accept shards
+	static final String READY = "READY";
+
+	// Shard id sent by the coordinator to stop the worker
+	static final int SHUTDOWN = -1;
+
+	// Argument that enables the subword fallback for words without an embedding
+	static final String SUBWORDS = "--subwords";
+
+	/**
+	 * Starts a worker.
+	 *
+	 * @param args The embeddings file, the Google-1000 file, the similarity
+	 *             algorithm (COSINE or EUCLIDEAN) and optionally --subwords to
+	 *             simplify words without an embedding from their character
+	 *             n-grams.
+	 */
+	public static void main(String[] args) {
+		boolean subwordFallback = args.length == 4 && args[3].equals(SUBWORDS);
+		if (args.length != 3 && !subwordFallback) {
+			System.err.println(
+					"Usage: ShardWorker <embeddings file> <google-1000 file> <COSINE|EUCLIDEAN> [" + SUBWORDS + "]");
+			System.exit(2);
+		}
+		try {
+			// Load the embeddings once for every shard handled by this worker
+			VocabularyRegistry registry = VocabularyRegistry.load(args[0]);
+			TargetVocabulary vocabulary = registry.register(args[1], args[1]);
+			var embeddings = registry.getEmbeddings();
+			var algorithm = SimilarityFinder.SimilarityAlgorithm.valueOf(args[2]);
+			vocabulary.getIndex(algorithm); // Prepare the search index before accepting shards
+			TextSimplifier textSimplifier = new TextSimplifier(new SimilarityFinder(algorithm),
+					registry.getPhraseMatcher(), subwordFallback ? registry.getSubwordModel() : null);
+
+			try (ServerSocket server = new ServerSocket(0, 1, InetAddress.getLoopbackAddress())) {
+				// Tell the coordinator which port to connect to
+				System.out.println(READY + " " + server.getLocalPort());
+				System.out.flush();
+				try (Socket socket = server.accept();
+						var in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+						var out = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()))) {
+					while (true) {
+						int shardId = in.readInt();
+						if (shardId == SHUTDOWN) {
+							return;
+						}
+						var lines = readLines(in);
+						var simplifiedLines = textSimplifier.simplifyLines(lines, embeddings, vocabulary);
+						out.writeInt(shardId);
+						writeLines(out, simplifiedLines);
+						out.flush();
+					}
+				} catch (EOFException e) {
+					// The coordinator closed the connection
+				}
+			}
+		} catch (IOException | IllegalArgumentException e) {
+			System.err.println("Worker failed: " + e.getMessage());
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Writes a line count followed by each line as length-prefixed UTF-8 bytes.
+	 *
+	 * Running time: O(n), where n is the total length of the lines.
+	 *
+	 * @param out   The stream to write to.
+	 * @param lines The lines to write.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	static void writeLines(DataOutputStream out, CopyOnWriteArrayList<String> lines) throws IOException {
+		out.writeInt(lines.size());
+		for (String line : lines) {
+			byte[] bytes = line.getBytes(StandardCharsets.UTF_8);
+			out.writeInt(bytes.length);
+			out.write(bytes);
+		}
+	}
+
+	/**
+	 * Reads lines written by writeLines.
+	 *
+	 * Running time: O(n), where n is the total length of the lines.
+	 *
+	 * @param in The stream to read from.
+	 * @return The lines that were read.
+	 * @throws IOException If an I/O error occurs or the stream ends early.
+	 */
+	static CopyOnWriteArrayList<String> readLines(DataInputStream in) throws IOException {
+		int count = in.readInt();
+		String[] lines = new String[count];
+		for (int i = 0; i < count; i++) {
+			byte[] bytes = new byte[in.readInt()];
+			in.readFully(bytes);
+			lines[i] = new String(bytes, StandardCharsets.UTF_8);
+		}
+		return new CopyOnWriteArrayList<>(lines);
+	}
+}
@@ -1,15 +1,18 @@
 package ie.atu.sw;
 
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.StructuredTaskScope;
 
 /**
  * SimilarityFinder computes the similarity between a target vector and a set of
  * word embeddings. It supports two algorithms: Cosine Similarity and Euclidean
- * Distance.
+ * Distance. Several algorithms can also be evaluated together in a single pass
+ * over the candidates, sharing the dot product and norms between them.
  *
- * This class uses structured concurrency to compute similarity scores in
+ * This class uses the shared TaskScheduler to compute similarity scores in
  * parallel. It is thread-safe and can be used by multiple threads concurrently.
  */
 public class SimilarityFinder {
@@ -22,8 +25,14 @@ public class SimilarityFinder {
 		COSINE, EUCLIDEAN
 	}
 
+	// Minimum number of candidates scored by a single task
+	private static final int CANDIDATES_PER_BATCH = 2048;
+
 	private final SimilarityAlgorithm algorithm;
 
+	// Candidate arrays of the last target map scanned in partitions
+	private volatile Candidates candidates;
+
 	/**
 	 * SimilarityFinder constructor with the specified algorithm.
 	 *
@@ -38,7 +47,9 @@ public class SimilarityFinder {
 	 * algorithm.
 	 *
 	 * This method iterates through all embeddings and calculates their similarity
-	 * to the target vector. It uses structured concurrency.
+	 * to the target vector. Large candidate sets are split into partitions which
+	 * are scanned in parallel by the shared TaskScheduler; otherwise the scan runs
+	 * on the calling thread.
 	 * 
 	 * Running time: O(n), where n is the number of embeddings and the vector size
 	 * never changes.
@@ -49,29 +60,201 @@ public class SimilarityFinder {
 	 *         distance (for EUCLIDEAN).
 	 */
 	public String findMostSimilar(double[] targetVector, ConcurrentHashMap<String, double[]> allEmbeddings) {
-		final SimilarityResult result = new SimilarityResult();
-		try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
-			// Fork a task for each word embedding
-			allEmbeddings.forEach((word, vector) -> scope.fork(() -> {
-				// Calculate similarity using the specified algorithm
-				double similarity = switch (algorithm) {
-				case COSINE -> calculateCosineSimilarity(targetVector, vector);
-				case EUCLIDEAN -> calculateEuclideanDistance(targetVector, vector);
-				};
-				result.updateIfBetter(word, similarity); // Update the best word
-				return null;
-			}));
-
-			scope.join(); // Wait for all tasks to complete
-			scope.throwIfFailed(); // Propagate exceptions if any
-		} catch (InterruptedException | ExecutionException e) {
+		final SimilarityResult result = new SimilarityResult(algorithm);
+		TaskScheduler scheduler = TaskScheduler.getShared();
+		if (!scheduler.shouldFork(allEmbeddings.size(), CANDIDATES_PER_BATCH)) {
+			// Scan the candidates on the calling thread
+			allEmbeddings.forEach((word, vector) -> result.updateIfBetter(word, score(targetVector, vector)));
+			return result.getWord();
+		}
+		Candidates candidates = candidatesOf(allEmbeddings);
+		String[] words = candidates.words;
+		double[][] vectors = candidates.vectors;
+		try {
+			// Each partition keeps a local best and merges it into the result once
+			scheduler.forEachBatch("similarity", words.length, CANDIDATES_PER_BATCH, (from, to) -> {
+				SimilarityResult local = new SimilarityResult(algorithm);
+				for (int i = from; i < to; i++) {
+					local.updateIfBetter(words[i], score(targetVector, vectors[i]));
+				}
+				if (local.getWord() != null) {
+					result.updateIfBetter(local.getWord(), local.bestScore);
+				}
+			});
+		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			System.err.println("Error during similarity calculation: " + e.getMessage());
+		} catch (ExecutionException e) {
+			System.err.println("Error during similarity calculation: " + e.getMessage());
 		}
 
 		return result.getWord();
 	}
 
+	/**
+	 * Finds the most similar word to the target vector for each of the given
+	 * algorithms in a single pass over the candidates.
+	 *
+	 * Each candidate's dot product, squared norm and squared distance to the
+	 * target are accumulated in one loop, and every selected score is derived from
+	 * them. The scores are computed exactly as the single-algorithm scan computes
+	 * them, so each result is the word that scan returns for that algorithm. The
+	 * algorithm this finder was constructed with is not used.
+	 *
+	 * Running time: O(n), where n is the number of embeddings and the vector size
+	 * never changes.
+	 *
+	 * @param targetVector  The target vector to compare against.
+	 * @param allEmbeddings A map of word embeddings.
+	 * @param algorithms    The algorithms to find the most similar word for.
+	 * @return The most similar word for each selected algorithm.
+	 */
+	public EnumMap<SimilarityAlgorithm, String> findMostSimilar(double[] targetVector,
+			ConcurrentHashMap<String, double[]> allEmbeddings, Set<SimilarityAlgorithm> algorithms) {
+		SimilarityAlgorithm[] selected = algorithms.toArray(new SimilarityAlgorithm[0]);
+		SimilarityResult[] results = new SimilarityResult[selected.length];
+		for (int m = 0; m < selected.length; m++) {
+			results[m] = new SimilarityResult(selected[m]);
+		}
+		// The target's squared norm is the same for every candidate
+		double targetNorm = 0.0;
+		for (double component : targetVector) {
+			targetNorm += component * component;
+		}
+		final double normA = targetNorm;
+
+		TaskScheduler scheduler = TaskScheduler.getShared();
+		if (!scheduler.shouldFork(allEmbeddings.size(), CANDIDATES_PER_BATCH)) {
+			// Scan the candidates on the calling thread
+			allEmbeddings.forEach((word, vector) -> scoreAll(targetVector, normA, word, vector, selected, results));
+		} else {
+			Candidates candidates = candidatesOf(allEmbeddings);
+			String[] words = candidates.words;
+			double[][] vectors = candidates.vectors;
+			try {
+				// Each partition keeps local bests and merges them into the results once
+				scheduler.forEachBatch("similarity", words.length, CANDIDATES_PER_BATCH, (from, to) -> {
+					SimilarityResult[] local = new SimilarityResult[selected.length];
+					for (int m = 0; m < selected.length; m++) {
+						local[m] = new SimilarityResult(selected[m]);
+					}
+					for (int i = from; i < to; i++) {
+						scoreAll(targetVector, normA, words[i], vectors[i], selected, local);
+					}
+					for (int m = 0; m < selected.length; m++) {
+						if (local[m].getWord() != null) {
+							results[m].updateIfBetter(local[m].getWord(), local[m].bestScore);
+						}
+					}
+				});
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				System.err.println("Error during similarity calculation: " + e.getMessage());
+			} catch (ExecutionException e) {
+				System.err.println("Error during similarity calculation: " + e.getMessage());
+			}
+		}
+
+		EnumMap<SimilarityAlgorithm, String> words = new EnumMap<>(SimilarityAlgorithm.class);
+		for (int m = 0; m < selected.length; m++) {
+			words.put(selected[m], results[m].getWord());
+		}
+		return words;
+	}
+
+	/**
+	 * Returns the candidates of a target map as arrays which can be partitioned
+	 * by index. The arrays are built once per target map and reused by later
+	 * queries, and rebuilt if a different map is scanned or the map has changed
+	 * size.
+	 *
+	 * Running time: O(1) if the arrays are reused; otherwise O(n), where n is the
+	 * number of embeddings.
+	 */
+	private Candidates candidatesOf(ConcurrentHashMap<String, double[]> allEmbeddings) {
+		Candidates cached = candidates;
+		if (cached != null && cached.source == allEmbeddings && cached.words.length == allEmbeddings.size()) {
+			return cached;
+		}
+		String[] words = new String[allEmbeddings.size()];
+		double[][] vectors = new double[words.length][];
+		int count = 0;
+		for (var entry : allEmbeddings.entrySet()) {
+			if (count == words.length) {
+				break; // Ignore entries added since the size was read
+			}
+			words[count] = entry.getKey();
+			vectors[count++] = entry.getValue();
+		}
+		// Racing queries may both build the arrays; either result is valid
+		cached = new Candidates(allEmbeddings, Arrays.copyOf(words, count), Arrays.copyOf(vectors, count));
+		candidates = cached;
+		return cached;
+	}
+
+	/**
+	 * Scores one candidate for every selected algorithm from a single loop over
+	 * its components.
+	 *
+	 * Running time: O(n), where n is the dimension of the vector.
+	 */
+	private static void scoreAll(double[] targetVector, double normA, String word, double[] vector,
+			SimilarityAlgorithm[] selected, SimilarityResult[] results) {
+		double dotProduct = 0.0, normB = 0.0, sumOfSquares = 0.0;
+		for (int i = 0; i < targetVector.length; i++) {
+			dotProduct += targetVector[i] * vector[i];
+			normB += vector[i] * vector[i];
+			sumOfSquares += Math.pow(targetVector[i] - vector[i], 2);
+		}
+		for (int m = 0; m < selected.length; m++) {
+			double score = switch (selected[m]) {
+			case COSINE -> (normA == 0 || normB == 0) ? 0.0 : dotProduct / (Math.sqrt(normA) * Math.sqrt(normB));
+			case EUCLIDEAN -> Math.sqrt(sumOfSquares);
+			};
+			results[m].updateIfBetter(word, score);
+		}
+	}
+
+	/**
+	 * Finds the most similar word to the target vector using a prepared search
+	 * index. The result is the same word the scan over the index's embeddings
+	 * returns, but clusters of candidates that cannot be closer are skipped.
+	 *
+	 * Running time: O(n) in the worst case, where n is the number of embeddings in
+	 * the index, and usually much less.
+	 *
+	 * @param targetVector The target vector to compare against.
+	 * @param vocabulary   The target vocabulary whose index is searched.
+	 * @return The word with the highest similarity (for COSINE) or the lowest
+	 *         distance (for EUCLIDEAN).
+	 */
+	public String findMostSimilar(double[] targetVector, TargetVocabulary vocabulary) {
+		return vocabulary.getIndex(algorithm).findMostSimilar(targetVector);
+	}
+
+	/**
+	 * Returns the similarity algorithm used by this finder.
+	 *
+	 * @return The similarity algorithm.
+	 */
+	public SimilarityAlgorithm getAlgorithm() {
+		return algorithm;
+	}
+
+	/**
+	 * Calculates the score of a candidate using the specified algorithm.
+	 *
+	 * @param targetVector The target vector.
+	 * @param vector       The candidate vector.
+	 * @return The cosine similarity or euclidean distance of the two vectors.
+	 */
+	private double score(double[] targetVector, double[] vector) {
+		return switch (algorithm) {
+		case COSINE -> calculateCosineSimilarity(targetVector, vector);
+		case EUCLIDEAN -> calculateEuclideanDistance(targetVector, vector);
+		};
+	}
+
 	/**
 	 * Calculates the Cosine Similarity between two vectors.
 	 * 
@@ -81,7 +264,7 @@ public class SimilarityFinder {
 	 * @param vector2 The second vector.
 	 * @return The cosine similarity between the two vectors.
 	 */
-	private double calculateCosineSimilarity(double[] vector1, double[] vector2) {
+	static double calculateCosineSimilarity(double[] vector1, double[] vector2) {
 		double dotProduct = 0.0, normA = 0.0, normB = 0.0;
 		// Calculate dot product and norms
 		for (int i = 0; i < vector1.length; i++) {
@@ -103,7 +286,7 @@ public class SimilarityFinder {
 	 * @param vector2 The second vector.
 	 * @return The Euclidean distance between the two vectors.
 	 */
-	private double calculateEuclideanDistance(double[] vector1, double[] vector2) {
+	static double calculateEuclideanDistance(double[] vector1, double[] vector2) {
 		double sumOfSquares = 0.0;
 		// Calculate sum of squares of differences
 		for (int i = 0; i < vector1.length; i++) {
@@ -113,18 +296,44 @@ public class SimilarityFinder {
 		return Math.sqrt(sumOfSquares);
 	}
 
+	/**
+	 * The words and vectors of a target map in iteration order.
+	 */
+	private static class Candidates {
+		private final ConcurrentHashMap<String, double[]> source;
+		private final String[] words;
+		private final double[][] vectors;
+
+		private Candidates(ConcurrentHashMap<String, double[]> source, String[] words, double[][] vectors) {
+			this.source = source;
+			this.words = words;
+			this.vectors = vectors;
+		}
+	}
+
 	/**
 	 * Internal helper class to store the best word and its similarity score.
 	 *
 	 * This class is thread-safe to allow concurrent updates from multiple threads.
 	 */
-	private class SimilarityResult {
+	private static class SimilarityResult {
+		private final SimilarityAlgorithm algorithm;
 		private volatile String bestWord = null;
 		// Initialize best score to negative infinity for cosine similarity and positive
 		// infinity for euclidean distance
 		// Positive infinity and Negative infinity are used to ensure better scores.
-		private volatile double bestScore = (algorithm == SimilarityAlgorithm.COSINE) ? Double.NEGATIVE_INFINITY
-				: Double.POSITIVE_INFINITY;
+		private volatile double bestScore;
+
+		/**
+		 * SimilarityResult constructor for the given algorithm.
+		 *
+		 * @param algorithm The algorithm the scores are produced by.
+		 */
+		private SimilarityResult(SimilarityAlgorithm algorithm) {
+			this.algorithm = algorithm;
+			this.bestScore = (algorithm == SimilarityAlgorithm.COSINE) ? Double.NEGATIVE_INFINITY
+					: Double.POSITIVE_INFINITY;
+		}
 
 		/**
 		 * Updates the best word and score if the current score is better.
@@ -0,0 +1,362 @@
+package ie.atu.sw;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SimplificationPipeline runs one simplification job as a graph of stages
+ * instead of one stage after another:
+ *
+ * - words: loads the target word lists that are not registered yet. - input:
+ * reads and lowercases the input text in chunks, running while the embeddings
+ * load. - embeddings: parses the embeddings file, capturing the vectors of the
+ * target words as their lines are parsed. - vocabulary: registers the target
+ * vocabularies from the captured vectors. - subwords: if the subword fallback
+ * is enabled, builds the character n-gram model for words without an embedding,
+ * alongside the vocabulary stage. - simplify: simplifies each chunk of input as
+ * soon as it has been read. - save: writes each simplified chunk as soon as it
+ * is ready.
+ *
+ * Simplification has to wait for the embeddings, since any word may appear on
+ * any line, but it no longer waits for the whole input to be read, and the
+ * output is written while later chunks are simplified.
+ *
+ * When more than one algorithm is selected, the job runs in comparison mode:
+ * each word is scored for every algorithm in a single pass over the target
+ * words, one output file is written per algorithm, and the words the
+ * algorithms replaced differently are written to a disagreement report.
+ */
+public class SimplificationPipeline {
+	// Number of lines passed between the input, simplify and save stages at once
+	private static final int LINES_PER_CHUNK = 256;
+
+	// Number of chunks each queue holds before its producer waits, which bounds
+	// the memory used when one stage runs ahead of the next
+	private static final int CHUNKS_IN_FLIGHT = 16;
+
+	// Marks the end of a stream of chunks
+	private static final List<String> END = List.of();
+
+	// Marks the end of a stream of compared chunks
+	private static final MetricComparison COMPARISON_END = new MetricComparison(List.of(),
+			new EnumMap<>(SimilarityFinder.SimilarityAlgorithm.class), List.of(), 0);
+
+	private final List<SimilarityFinder.SimilarityAlgorithm> algorithms;
+	private final boolean subwordFallback;
+
+	/**
+	 * SimplificationPipeline constructor with the specified algorithm.
+	 *
+	 * @param algorithm The similarity algorithm to use (COSINE or EUCLIDEAN).
+	 */
+	public SimplificationPipeline(SimilarityFinder.SimilarityAlgorithm algorithm) {
+		this(List.of(algorithm));
+	}
+
+	/**
+	 * SimplificationPipeline constructor with the specified algorithms. With more
+	 * than one algorithm the job runs in comparison mode.
+	 *
+	 * @param algorithms The similarity algorithms to use.
+	 */
+	public SimplificationPipeline(List<SimilarityFinder.SimilarityAlgorithm> algorithms) {
+		this(algorithms, false);
+	}
+
+	/**
+	 * SimplificationPipeline constructor with the specified algorithms and
+	 * subword fallback setting.
+	 *
+	 * @param algorithms      The similarity algorithms to use.
+	 * @param subwordFallback True to simplify words without an embedding using a
+	 *                        vector composed from their character n-grams, false
+	 *                        to pass them through unchanged.
+	 */
+	public SimplificationPipeline(List<SimilarityFinder.SimilarityAlgorithm> algorithms, boolean subwordFallback) {
+		this.algorithms = new ArrayList<>(EnumSet.copyOf(algorithms));
+		this.subwordFallback = subwordFallback;
+	}
+
+	/**
+	 * Runs a simplification job and prints the stage timeline. In comparison mode
+	 * the output file name is given the name of each algorithm, for example
+	 * out.cosine.txt, and the disagreements are written to
+	 * out.disagreements.tsv.
+	 *
+	 * @param registry       The registry from a previous job, or null. It is
+	 *                       reused if it was loaded from the same embeddings file.
+	 * @param embeddingsFile The path to the embeddings file.
+	 * @param wordListFiles  The paths to the target word list files, which are
+	 *                       registered under their paths.
+	 * @param vocabularyName The name of the vocabulary to simplify with.
+	 * @param inputTextFile  The path to the input text file.
+	 * @param outputFile     The path to the output text file.
+	 * @return The registry used by the job, to be reused by later jobs.
+	 * @throws IOException If a file cannot be read or written or a stage fails.
+	 */
+	public VocabularyRegistry run(VocabularyRegistry registry, String embeddingsFile, List<String> wordListFiles,
+			String vocabularyName, String inputTextFile, String outputFile) throws IOException {
+		boolean reuse = registry != null && registry.getEmbeddingsFile().equals(embeddingsFile);
+		boolean comparing = algorithms.size() > 1;
+		BlockingQueue<List<String>> inputChunks = new LinkedBlockingQueue<>(CHUNKS_IN_FLIGHT);
+		BlockingQueue<List<String>> outputChunks = new LinkedBlockingQueue<>(CHUNKS_IN_FLIGHT);
+		BlockingQueue<MetricComparison> comparedChunks = new LinkedBlockingQueue<>(CHUNKS_IN_FLIGHT);
+		LongAdder comparedWords = new LongAdder();
+		LongAdder disagreements = new LongAdder();
+		StageGraph graph = new StageGraph();
+
+		// Load the word lists that are not registered yet
+		var words = graph.add("words", () -> {
+			Map<String, Set<String>> lists = new LinkedHashMap<>();
+			for (String wordListFile : wordListFiles) {
+				if (!reuse || !registry.contains(wordListFile)) {
+					GoogleProcessor googleProcessor = new GoogleProcessor();
+					googleProcessor.load(wordListFile);
+					lists.put(wordListFile, googleProcessor.getGoogleWords());
+				}
+			}
+			return lists;
+		});
+
+		// Read the input text while the embeddings load
+		var input = graph.add("input", () -> {
+			readChunks(inputTextFile, inputChunks);
+			return null;
+		});
+
+		// Parse the embeddings, capturing target vectors as their lines are parsed.
+		// The word lists are only needed first when the embeddings are not reused
+		var embeddings = graph.add("embeddings", () -> {
+			if (reuse) {
+				return new Loaded(registry, registry.getEmbeddings());
+			}
+			Set<String> targets = ConcurrentHashMap.newKeySet();
+			words.get().values().forEach(targets::addAll);
+			EmbeddingProcessor embeddingProcessor = new EmbeddingProcessor();
+			var captured = embeddingProcessor.capture(targets);
+			embeddingProcessor.load(embeddingsFile);
+			return new Loaded(new VocabularyRegistry(embeddingsFile, embeddingProcessor.getEmbeddings()), captured);
+		}, reuse ? new StageGraph.Stage<?>[0] : new StageGraph.Stage<?>[] { words });
+
+		// Register the new vocabularies from the captured vectors
+		var vocabulary = graph.add("vocabulary", () -> {
+			Loaded loaded = embeddings.get();
+			words.get().forEach((name, list) -> loaded.registry.register(name, list, loaded.captured));
+			loaded.registry.getPhraseMatcher();
+			TargetVocabulary target = loaded.registry.get(vocabularyName);
+			if (!comparing) {
+				target.getIndex(algorithms.get(0)); // Prepare the search index before simplifying
+			}
+			return target;
+		}, words, embeddings);
+
+		// Build the subword model for words without an embedding, if enabled
+		var subwords = subwordFallback
+				? graph.add("subwords", () -> embeddings.get().registry.getSubwordModel(), embeddings)
+				: null;
+
+		// Simplify each chunk of input as soon as it has been read
+		var simplify = graph.add("simplify", () -> {
+			VocabularyRegistry loaded = embeddings.get().registry;
+			TargetVocabulary target = vocabulary.get();
+			TextSimplifier textSimplifier = new TextSimplifier(new SimilarityFinder(algorithms.get(0)),
+					loaded.getPhraseMatcher(), (subwords != null) ? subwords.get() : null);
+			for (List<String> chunk = inputChunks.take(); chunk != END; chunk = inputChunks.take()) {
+				if (comparing) {
+					// Score every algorithm in one pass over the target words
+					comparedChunks.put(textSimplifier.compareLines(new CopyOnWriteArrayList<>(chunk),
+							loaded.getEmbeddings(), target.getEmbeddings(), EnumSet.copyOf(algorithms)));
+				} else {
+					outputChunks.put(textSimplifier.simplifyLines(new CopyOnWriteArrayList<>(chunk),
+							loaded.getEmbeddings(), target));
+				}
+			}
+			// A failed stage shuts down the graph, interrupting the save stage, so the
+			// end marker is only needed after the last chunk
+			if (comparing) {
+				comparedChunks.put(COMPARISON_END);
+			} else {
+				outputChunks.put(END);
+			}
+			return null;
+		}, (subwords != null) ? new StageGraph.Stage<?>[] { vocabulary, subwords }
+				: new StageGraph.Stage<?>[] { vocabulary }).streamsFrom(input);
+
+		// Write each simplified chunk as soon as it is ready
+		graph.add("save", () -> {
+			if (comparing) {
+				saveComparison(outputFile, comparedChunks, comparedWords, disagreements);
+				return null;
+			}
+			try (BufferedWriter writer = FileStreams.openWriter(outputFile)) {
+				for (List<String> chunk = outputChunks.take(); chunk != END; chunk = outputChunks.take()) {
+					writeLines(writer, chunk);
+				}
+			}
+			return null;
+		}, vocabulary).streamsFrom(simplify);
+
+		try {
+			graph.run();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("Simplification interrupted", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			throw (cause instanceof IOException io) ? io : new IOException(cause.getMessage(), cause);
+		} finally {
+			graph.printTimeline();
+		}
+		if (comparing) {
+			long compared = comparedWords.sum();
+			System.out.printf("  Compared %s: %d of %d words replaced differently (%.1f%%)%n", algorithms,
+					disagreements.sum(), compared, (compared == 0) ? 0.0 : disagreements.sum() * 100.0 / compared);
+		} else {
+			NearestNeighbourIndex index = vocabulary.get().getIndex(algorithms.get(0));
+			System.out.printf("  Search index: %d clusters, %.1f%% of candidates pruned so far%n",
+					index.getClusterCount(), index.getPrunedFraction() * 100);
+		}
+		if (subwords != null) {
+			SubwordModel subwordModel = subwords.get();
+			System.out.printf(
+					"  Subword fallback: %d buckets, %d vectors composed, %.1f%% of missing words served from cache%n",
+					subwordModel.getBucketCount(), subwordModel.getComposedCount(),
+					subwordModel.getCacheHitRate() * 100);
+		}
+		return embeddings.get().registry;
+	}
+
+	/**
+	 * Returns the file name for one output of a comparison, inserting the suffix
+	 * before the extension of the output file: out.txt becomes out.cosine.txt and
+	 * out.txt.gz becomes out.cosine.txt.gz.
+	 *
+	 * @param outputFile The path to the output text file.
+	 * @param suffix     The suffix to insert.
+	 * @param extension  The extension to use, or null to keep the original one.
+	 * @return The path of the output.
+	 */
+	private static String comparisonFile(String outputFile, String suffix, String extension) {
+		String compression = outputFile.endsWith(".gz") ? ".gz" : "";
+		String base = outputFile.substring(0, outputFile.length() - compression.length());
+		int dot = base.lastIndexOf('.');
+		String originalExtension = "";
+		if (dot > Math.max(base.lastIndexOf('/'), base.lastIndexOf('\\'))) {
+			originalExtension = base.substring(dot);
+			base = base.substring(0, dot);
+		}
+		return base + "." + suffix + ((extension != null) ? extension : originalExtension) + compression;
+	}
+
+	/**
+	 * Writes each compared chunk as soon as it is ready: the lines of every
+	 * algorithm to their own output file and the disagreements to the report.
+	 *
+	 * Running time: O(n), where n is the number of lines and disagreements.
+	 *
+	 * @param outputFile    The path to the output text file.
+	 * @param chunks        The queue the compared chunks are taken from.
+	 * @param comparedWords Counts the words that were compared.
+	 * @param disagreements Counts the words that were replaced differently.
+	 * @throws IOException          If a file cannot be written.
+	 * @throws InterruptedException If interrupted while taking a chunk.
+	 */
+	private void saveComparison(String outputFile, BlockingQueue<MetricComparison> chunks, LongAdder comparedWords,
+			LongAdder disagreements) throws IOException, InterruptedException {
+		EnumMap<SimilarityFinder.SimilarityAlgorithm, BufferedWriter> writers = new EnumMap<>(
+				SimilarityFinder.SimilarityAlgorithm.class);
+		try (BufferedWriter report = FileStreams.openWriter(comparisonFile(outputFile, "disagreements", ".tsv"))) {
+			for (var algorithm : algorithms) {
+				writers.put(algorithm,
+						FileStreams.openWriter(comparisonFile(outputFile, algorithm.name().toLowerCase(), null)));
+			}
+			MetricComparison.writeReportHeader(report, algorithms);
+			int firstLine = 1;
+			for (MetricComparison chunk = chunks.take(); chunk != COMPARISON_END; chunk = chunks.take()) {
+				for (var algorithm : algorithms) {
+					writeLines(writers.get(algorithm), chunk.getOutput(algorithm));
+				}
+				chunk.writeReport(report, firstLine);
+				firstLine += chunk.getOutput(algorithms.get(0)).size();
+				comparedWords.add(chunk.getComparedWords());
+				disagreements.add(chunk.getDisagreements().size());
+			}
+		} finally {
+			for (BufferedWriter writer : writers.values()) {
+				writer.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes each line followed by a line separator.
+	 *
+	 * @param writer The writer for the output.
+	 * @param lines  The lines to write.
+	 * @throws IOException If an I/O error occurs.
+	 */
+	private static void writeLines(BufferedWriter writer, List<String> lines) throws IOException {
+		for (String line : lines) {
+			writer.write(line);
+			writer.newLine();
+		}
+	}
+
+	/**
+	 * Reads a file in order into chunks of lowercased lines, followed by the end
+	 * marker, waiting while the queue is full.
+	 *
+	 * Running time: O(n), where n is the number of lines in the file.
+	 *
+	 * @param filePath The path to the input file.
+	 * @param chunks   The queue the chunks are put on.
+	 * @throws IOException          If the file cannot be read.
+	 * @throws InterruptedException If interrupted while putting a chunk.
+	 */
+	private static void readChunks(String filePath, BlockingQueue<List<String>> chunks)
+			throws IOException, InterruptedException {
+		try (BufferedReader reader = FileStreams.openReader(filePath)) {
+			List<String> chunk = new ArrayList<>(LINES_PER_CHUNK);
+			String line;
+			while ((line = reader.readLine()) != null) {
+				chunk.add(line.toLowerCase());
+				if (chunk.size() == LINES_PER_CHUNK) {
+					chunks.put(chunk);
+					chunk = new ArrayList<>(LINES_PER_CHUNK);
+				}
+			}
+			if (!chunk.isEmpty()) {
+				chunks.put(chunk);
+			}
+		}
+		chunks.put(END);
+	}
+
+	/**
+	 * The registry produced by the embeddings stage and the target vectors
+	 * captured while loading.
+	 */
+	private static class Loaded {
+		private final VocabularyRegistry registry;
+		private final ConcurrentHashMap<String, double[]> captured;
+
+		private Loaded(VocabularyRegistry registry, ConcurrentHashMap<String, double[]> captured) {
+			this.registry = registry;
+			this.captured = captured;
+		}
+	}
+}
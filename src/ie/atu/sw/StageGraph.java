@@ -0,0 +1,168 @@
+package ie.atu.sw;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.StructuredTaskScope;
+
+/**
+ * StageGraph runs a set of named stages as a dependency graph. Every stage is
+ * forked in its own virtual thread and starts as soon as the stages it depends
+ * on have finished, so independent stages run concurrently. The start and end
+ * time of each stage is recorded so that the timeline and the critical path can
+ * be reported afterwards.
+ *
+ * Stages may also stream values to each other through a queue; such a stage
+ * declares its producer with streamsFrom so the producer is shown on the
+ * critical path without delaying the consumer's start.
+ */
+public class StageGraph {
+	private final List<Stage<?>> stages = new ArrayList<>();
+	private long startTime;
+
+	/**
+	 * The work done by a stage.
+	 *
+	 * @param <T> The type of value produced by the stage.
+	 */
+	@FunctionalInterface
+	public interface StageTask<T> {
+		T run() throws Exception;
+	}
+
+	/**
+	 * Adds a stage to the graph. Dependencies must already have been added, which
+	 * keeps the graph acyclic.
+	 *
+	 * @param <T>          The type of value produced by the stage.
+	 * @param name         The name of the stage used in the timeline.
+	 * @param task         The work done by the stage.
+	 * @param dependencies The stages that must finish before this stage starts.
+	 * @return The new stage, whose value can be read by dependent stages.
+	 */
+	public <T> Stage<T> add(String name, StageTask<T> task, Stage<?>... dependencies) {
+		Stage<T> stage = new Stage<>(name, task, List.of(dependencies));
+		stages.add(stage);
+		return stage;
+	}
+
+	/**
+	 * Runs every stage and waits for all of them to finish. If a stage fails the
+	 * remaining stages are cancelled.
+	 *
+	 * @throws InterruptedException If the caller is interrupted while waiting.
+	 * @throws ExecutionException   If any stage fails.
+	 */
+	public void run() throws InterruptedException, ExecutionException {
+		startTime = System.nanoTime();
+		try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
+			for (Stage<?> stage : stages) {
+				scope.fork(() -> {
+					stage.execute();
+					return null;
+				});
+			}
+			scope.join();
+			scope.throwIfFailed();
+		}
+	}
+
+	/**
+	 * Prints when each stage started and finished relative to the start of the
+	 * run, followed by the critical path: the chain of dependencies that finished
+	 * last, ending at the last stage to finish.
+	 */
+	public void printTimeline() {
+		System.out.println(ConsoleColour.CYAN + "\nStage timeline:" + ConsoleColour.RESET);
+		Stage<?> last = null;
+		for (Stage<?> stage : stages) {
+			if (stage.end == 0) {
+				continue; // The stage did not finish
+			}
+			System.out.printf("  %-12s %9.2fms -> %9.2fms (%.2fms)%n", stage.name, (stage.start - startTime) / 1e6,
+					(stage.end - startTime) / 1e6, (stage.end - stage.start) / 1e6);
+			if (last == null || stage.end > last.end) {
+				last = stage;
+			}
+		}
+		// Walk back from the last stage through the dependency or producer that
+		// finished last
+		List<String> path = new ArrayList<>();
+		for (Stage<?> stage = last; stage != null;) {
+			path.add(0, stage.name);
+			Stage<?> latest = null;
+			List<Stage<?>> upstream = new ArrayList<>(stage.dependencies);
+			upstream.addAll(stage.producers);
+			for (Stage<?> dependency : upstream) {
+				if (latest == null || dependency.end > latest.end) {
+					latest = dependency;
+				}
+			}
+			stage = latest;
+		}
+		System.out.println("  Critical path: " + String.join(" -> ", path));
+	}
+
+	/**
+	 * A stage in the graph and the value it produced.
+	 *
+	 * @param <T> The type of value produced by the stage.
+	 */
+	public static class Stage<T> {
+		private final String name;
+		private final StageTask<T> task;
+		private final List<Stage<?>> dependencies;
+		private final List<Stage<?>> producers = new ArrayList<>();
+		private final CompletableFuture<T> result = new CompletableFuture<>();
+		private volatile long start;
+		private volatile long end;
+
+		private Stage(String name, StageTask<T> task, List<Stage<?>> dependencies) {
+			this.name = name;
+			this.task = task;
+			this.dependencies = dependencies;
+		}
+
+		/**
+		 * Marks this stage as consuming values streamed by another stage while that
+		 * stage is still running. The producer does not delay the start of this
+		 * stage but is considered when finding the critical path.
+		 *
+		 * @param producer The stage that streams values to this stage.
+		 * @return This stage.
+		 */
+		public Stage<T> streamsFrom(Stage<?> producer) {
+			producers.add(producer);
+			return this;
+		}
+
+		/**
+		 * Waits for the dependencies, then runs the task and publishes its value.
+		 */
+		private void execute() throws Exception {
+			try {
+				for (Stage<?> dependency : dependencies) {
+					dependency.result.get();
+				}
+				start = System.nanoTime();
+				T value = task.run();
+				end = System.nanoTime();
+				result.complete(value);
+			} catch (Exception e) {
+				result.completeExceptionally(e);
+				throw e;
+			}
+		}
+
+		/**
+		 * Returns the value produced by the stage. Only call this from a stage that
+		 * depends on this one, or after the graph has run.
+		 *
+		 * @return The value produced by the stage.
+		 */
+		public T get() {
+			return result.getNow(null);
+		}
+	}
+}
@@ -0,0 +1,276 @@
+package ie.atu.sw;
+
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * SubwordModel builds vectors for words that have no embedding from the
+ * character n-grams they share with words that do, in the style of fastText.
+ *
+ * Each word of the embeddings vocabulary is wrapped in boundary markers, as in
+ * "<word>", and split into character n-grams of MIN_N to MAX_N characters. Each
+ * n-gram is hashed into one of a fixed number of buckets, and each bucket
+ * stores the mean vector of the words whose n-grams fall into it. The vector of
+ * a missing word is the mean of the buckets of its own n-grams, so "runnning"
+ * or "simplifed" end up close to "running" and "simplified".
+ *
+ * The number of buckets is sized from the number of n-grams in the
+ * vocabulary, at about two buckets per word. Buckets are stored in single
+ * precision, so the table takes about as much memory as the embeddings it was
+ * built from rather than a fixed amount.
+ *
+ * Composed vectors are memoised in a bounded, direct-mapped cache: a repeated
+ * miss is one array read and one string comparison. N-grams are hashed from the
+ * characters of the word in place, so composing a vector allocates only the
+ * vector itself and its cache entry.
+ *
+ * The model is read-only after construction and can be shared by multiple
+ * threads.
+ */
+public class SubwordModel {
+	// Shortest and longest character n-grams, counting the boundary markers
+	private static final int MIN_N = 3;
+	private static final int MAX_N = 5;
+
+	// Shortest word a vector is composed for
+	private static final int MIN_WORD_LENGTH = 3;
+
+	// Number of n-gram occurrences in the vocabulary per bucket
+	private static final int NGRAMS_PER_BUCKET = 8;
+
+	// Maximum number of n-gram buckets and number of cached vectors, overridable
+	// with system properties
+	private static final int MAX_BUCKETS = Integer.getInteger("simplifier.subwordBuckets", 1 << 16);
+	private static final int CACHE_SIZE = Integer.getInteger("simplifier.subwordCache", 1 << 14);
+
+	// FNV-1a hash parameters, as used by fastText
+	private static final int FNV_OFFSET = 0x811c9dc5;
+	private static final int FNV_PRIME = 0x01000193;
+
+	private final int dimension;
+	private final int bucketMask;
+	private final float[] buckets;
+	private final boolean[] filled;
+	private final Entry[] cache;
+	private final int cacheMask;
+	private final LongAdder lookups = new LongAdder();
+	private final LongAdder composed = new LongAdder();
+
+	/**
+	 * Builds the n-gram buckets from an embeddings vocabulary. Phrases (keys
+	 * containing "_") are skipped.
+	 *
+	 * Running time: O(n * l * d), where n is the number of words, l is the
+	 * average word length and d is the vector dimension.
+	 *
+	 * @param embeddings The map of all embeddings.
+	 */
+	public SubwordModel(Map<String, double[]> embeddings) {
+		this.dimension = embeddings.isEmpty() ? 0 : embeddings.values().iterator().next().length;
+		int cacheSize = Integer.highestOneBit(Math.max(1, CACHE_SIZE));
+		this.cacheMask = cacheSize - 1;
+		this.cache = new Entry[cacheSize];
+
+		// Size the buckets from the n-grams of the vocabulary, keeping the table
+		// within the largest array size
+		long ngrams = 0;
+		for (String word : embeddings.keySet()) {
+			if (word.indexOf('_') < 0) {
+				ngrams += ngramCount(word);
+			}
+		}
+		long bucketLimit = Math.min(MAX_BUCKETS, (Integer.MAX_VALUE - 8L) / Math.max(1, dimension));
+		int bucketCount = Integer.highestOneBit((int) Math.max(1, Math.min(bucketLimit, ngrams / NGRAMS_PER_BUCKET)));
+		this.bucketMask = bucketCount - 1;
+
+		// Sum the vectors of the words whose n-grams fall into each bucket
+		this.buckets = new float[bucketCount * dimension];
+		int[] counts = new int[bucketCount];
+		int[] hashes = new int[64];
+		for (var entry : embeddings.entrySet()) {
+			String word = entry.getKey();
+			double[] vector = entry.getValue();
+			if (word.indexOf('_') >= 0 || vector.length != dimension) {
+				continue;
+			}
+			if (hashes.length < ngramCount(word)) {
+				hashes = new int[ngramCount(word)];
+			}
+			int n = ngramBuckets(word, hashes);
+			for (int i = 0; i < n; i++) {
+				int offset = hashes[i] * dimension;
+				for (int d = 0; d < dimension; d++) {
+					buckets[offset + d] += (float) vector[d];
+				}
+				counts[hashes[i]]++;
+			}
+		}
+
+		// Turn the sums into means
+		this.filled = new boolean[bucketCount];
+		for (int b = 0; b < bucketCount; b++) {
+			if (counts[b] == 0) {
+				continue;
+			}
+			filled[b] = true;
+			int offset = b * dimension;
+			for (int d = 0; d < dimension; d++) {
+				buckets[offset + d] /= counts[b];
+			}
+		}
+	}
+
+	/**
+	 * Returns the number of n-gram buckets.
+	 *
+	 * @return The number of buckets.
+	 */
+	public int getBucketCount() {
+		return filled.length;
+	}
+
+	/**
+	 * Returns a vector for a word without an embedding, composed from its
+	 * character n-grams, or null if the word is too short, has no letters, or
+	 * none of its n-grams occur in the vocabulary.
+	 *
+	 * Running time: O(1) for a cached word; otherwise O(l * d), where l is the
+	 * length of the word and d is the vector dimension.
+	 *
+	 * @param word The lowercased word.
+	 * @return The composed vector, or null.
+	 */
+	public double[] vectorFor(String word) {
+		lookups.increment();
+		int slot = word.hashCode() & cacheMask;
+		Entry entry = cache[slot];
+		if (entry != null && entry.word.equals(word)) {
+			return entry.vector;
+		}
+		double[] vector = compose(word);
+		// Entries are immutable, so a racing write only costs a later recomputation
+		cache[slot] = new Entry(word, vector);
+		return vector;
+	}
+
+	/**
+	 * Returns the fraction of lookups answered from the cache so far.
+	 *
+	 * @return The hit rate, between 0 and 1.
+	 */
+	public double getCacheHitRate() {
+		long total = lookups.sum();
+		return (total == 0) ? 0.0 : 1.0 - (double) composed.sum() / total;
+	}
+
+	/**
+	 * Returns the number of vectors composed so far, that is the number of
+	 * lookups that missed the cache.
+	 *
+	 * @return The number of composed vectors.
+	 */
+	public long getComposedCount() {
+		return composed.sum();
+	}
+
+	/**
+	 * Averages the buckets of the word's n-grams.
+	 */
+	private double[] compose(String word) {
+		composed.increment();
+		if (dimension == 0 || word.length() < MIN_WORD_LENGTH || !hasLetter(word)) {
+			return null;
+		}
+		double[] vector = null;
+		int used = 0;
+		int length = word.length() + 2;
+		for (int start = 0; start < length; start++) {
+			int hash = FNV_OFFSET;
+			for (int end = start; end < length && end - start < MAX_N; end++) {
+				hash = (hash ^ charAt(word, end)) * FNV_PRIME;
+				int bucket = hash & bucketMask;
+				if (end - start + 1 < MIN_N || !filled[bucket]) {
+					continue;
+				}
+				if (vector == null) {
+					vector = new double[dimension];
+				}
+				int offset = bucket * dimension;
+				for (int d = 0; d < dimension; d++) {
+					vector[d] += buckets[offset + d];
+				}
+				used++;
+			}
+		}
+		if (vector != null) {
+			for (int d = 0; d < dimension; d++) {
+				vector[d] /= used;
+			}
+		}
+		return vector;
+	}
+
+	/**
+	 * Hashes every n-gram of the word into the given array.
+	 *
+	 * @return The number of n-grams.
+	 */
+	private int ngramBuckets(String word, int[] hashes) {
+		int n = 0;
+		int length = word.length() + 2;
+		for (int start = 0; start < length; start++) {
+			int hash = FNV_OFFSET;
+			for (int end = start; end < length && end - start < MAX_N; end++) {
+				hash = (hash ^ charAt(word, end)) * FNV_PRIME;
+				if (end - start + 1 >= MIN_N) {
+					hashes[n++] = hash & bucketMask;
+				}
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Returns the number of n-grams of a word, an upper bound used to size the
+	 * hash array.
+	 */
+	private static int ngramCount(String word) {
+		return (word.length() + 2) * (MAX_N - MIN_N + 1);
+	}
+
+	/**
+	 * Returns the character at the given position of "<word>".
+	 */
+	private static char charAt(String word, int position) {
+		if (position == 0) {
+			return '<';
+		}
+		return (position > word.length()) ? '>' : word.charAt(position - 1);
+	}
+
+	/**
+	 * Returns true if the word contains at least one letter.
+	 */
+	private static boolean hasLetter(String word) {
+		for (int i = 0; i < word.length(); i++) {
+			if (Character.isLetter(word.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * A cached word and its composed vector, which is null if none could be
+	 * composed.
+	 */
+	private static class Entry {
+		private final String word;
+		private final double[] vector;
+
+		private Entry(String word, double[] vector) {
+			this.word = word;
+			this.vector = vector;
+		}
+	}
+}
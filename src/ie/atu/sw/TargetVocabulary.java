@@ -0,0 +1,59 @@
+package ie.atu.sw;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TargetVocabulary is a named list of target words, such as the Google-1000
+ * words, together with the search index used to find the most similar target
+ * word. An exact NearestNeighbourIndex is built for each similarity algorithm
+ * on first use. The vectors in the index are shared with the embedding store
+ * they were taken from, so a vocabulary only costs the memory of its own index.
+ */
+public class TargetVocabulary {
+	private final String name;
+	private final ConcurrentHashMap<String, double[]> embeddings;
+	private final ConcurrentHashMap<SimilarityFinder.SimilarityAlgorithm, NearestNeighbourIndex> indexes;
+
+	/**
+	 * TargetVocabulary constructor.
+	 *
+	 * @param name       The name the vocabulary is registered under.
+	 * @param embeddings The embeddings of the target words.
+	 */
+	public TargetVocabulary(String name, ConcurrentHashMap<String, double[]> embeddings) {
+		this.name = name;
+		this.embeddings = embeddings;
+		this.indexes = new ConcurrentHashMap<>();
+	}
+
+	/**
+	 * Returns the name the vocabulary is registered under.
+	 *
+	 * @return The vocabulary name.
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Returns the embeddings of the target words. The map is not copied and must
+	 * not be modified.
+	 *
+	 * @return The target word embeddings.
+	 */
+	public ConcurrentHashMap<String, double[]> getEmbeddings() {
+		return embeddings;
+	}
+
+	/**
+	 * Returns the search index for the given algorithm, building it on first use.
+	 *
+	 * Running time: O(1) once built; see NearestNeighbourIndex for the build cost.
+	 *
+	 * @param algorithm The similarity algorithm.
+	 * @return The search index over the target embeddings.
+	 */
+	public NearestNeighbourIndex getIndex(SimilarityFinder.SimilarityAlgorithm algorithm) {
+		return indexes.computeIfAbsent(algorithm, a -> new NearestNeighbourIndex(embeddings, a));
+	}
+}
@@ -0,0 +1,295 @@
+package ie.atu.sw;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * TaskScheduler is the shared execution layer used by the processors. Instead
+ * of forking one virtual thread per element, work is split into batches sized
+ * by the amount of work involved, the number of batches in flight is bounded,
+ * and small or nested workloads run inline on the calling thread.
+ *
+ * Every call is recorded against a named stage so that task counts and
+ * scheduling overhead (time spent forking batches, separate from time spent
+ * waiting on backpressure or for batches to finish) can be reported once
+ * processing has finished.
+ */
+public class TaskScheduler {
+	private static final TaskScheduler SHARED = new TaskScheduler(
+			Integer.getInteger("simplifier.parallelism", Runtime.getRuntime().availableProcessors()));
+
+	// Batches created per unit of parallelism to balance uneven workloads
+	private static final int BATCHES_PER_WORKER = 4;
+
+	// How often a blocked submitter checks whether its scope has shut down
+	private static final long SHUTDOWN_POLL_MILLIS = 50;
+
+	// Marks threads forked by a scheduler so that nested stages run inline
+	private static final ThreadLocal<Boolean> IN_TASK = ThreadLocal.withInitial(() -> false);
+
+	private final int parallelism;
+	private final ConcurrentHashMap<String, StageStats> stats = new ConcurrentHashMap<>();
+
+	/**
+	 * TaskScheduler constructor with the specified parallelism.
+	 *
+	 * @param parallelism The maximum number of batches a stage runs at once.
+	 */
+	public TaskScheduler(int parallelism) {
+		if (parallelism < 1) {
+			throw new IllegalArgumentException("Parallelism must be at least 1: " + parallelism);
+		}
+		this.parallelism = parallelism;
+	}
+
+	/**
+	 * Returns the scheduler shared by all processors. Its parallelism defaults to
+	 * the number of available processors and can be overridden with the
+	 * simplifier.parallelism system property.
+	 *
+	 * @return The shared scheduler.
+	 */
+	public static TaskScheduler getShared() {
+		return SHARED;
+	}
+
+	/**
+	 * Returns the maximum number of batches a stage runs at once.
+	 *
+	 * @return The configured parallelism.
+	 */
+	public int getParallelism() {
+		return parallelism;
+	}
+
+	/**
+	 * A unit of work covering the index range [from, to).
+	 */
+	@FunctionalInterface
+	public interface BatchTask {
+		void run(int from, int to);
+	}
+
+	/**
+	 * Runs the task over the index range [0, size) split into batches.
+	 *
+	 * The batch size is at least grain elements, so cheap elements are grouped
+	 * into larger batches. If the range fits in a single batch, or the caller is
+	 * already running inside a scheduled task, the whole range runs inline.
+	 *
+	 * Running time: O(n / b) scheduling steps, where n is the size of the range
+	 * and b is the batch size.
+	 *
+	 * @param stage The name of the stage the work is reported against.
+	 * @param size  The number of elements to process.
+	 * @param grain The minimum number of elements per batch.
+	 * @param task  The task to run for each batch.
+	 * @throws InterruptedException If the caller is interrupted while waiting.
+	 * @throws ExecutionException   If any batch fails.
+	 */
+	public void forEachBatch(String stage, int size, int grain, BatchTask task)
+			throws InterruptedException, ExecutionException {
+		if (size <= 0) {
+			return;
+		}
+		int batchSize = batchSize(size, grain);
+		if (!shouldFork(size, grain)) {
+			// Too little work to be worth forking
+			statsFor(stage).recordInline(size);
+			try {
+				task.run(0, size);
+			} catch (RuntimeException e) {
+				throw new ExecutionException(e);
+			}
+			return;
+		}
+		try (StageScope scope = open(stage)) {
+			for (int from = 0; from < size; from += batchSize) {
+				final int start = from;
+				final int end = Math.min(size, from + batchSize);
+				if (!scope.submit(end - start, () -> task.run(start, end))) {
+					break; // A batch failed; join reports the failure
+				}
+			}
+			scope.join();
+		}
+	}
+
+	/**
+	 * Returns true if a workload of the given size would be split into more than
+	 * one batch. Callers can use this to skip preparing shared state for work that
+	 * will run inline anyway.
+	 *
+	 * @param size  The number of elements to process.
+	 * @param grain The minimum number of elements per batch.
+	 * @return True if the workload will be forked.
+	 */
+	public boolean shouldFork(int size, int grain) {
+		return parallelism > 1 && !IN_TASK.get() && size > batchSize(size, grain);
+	}
+
+	/**
+	 * Returns the batch size used for a workload of the given size.
+	 *
+	 * @param size  The number of elements to process.
+	 * @param grain The minimum number of elements per batch.
+	 * @return The number of elements per batch.
+	 */
+	public int batchSize(int size, int grain) {
+		int perBatch = (size + parallelism * BATCHES_PER_WORKER - 1) / (parallelism * BATCHES_PER_WORKER);
+		return Math.max(Math.max(grain, 1), perBatch);
+	}
+
+	/**
+	 * Opens a scope for submitting batches one at a time, for example while
+	 * reading a file. At most twice the configured parallelism batches are in
+	 * flight; further submissions block until a batch completes. With a
+	 * parallelism of 1 every batch runs inline on the caller.
+	 *
+	 * @param stage The name of the stage the work is reported against.
+	 * @return A new stage scope which must be joined and closed by the caller.
+	 */
+	public StageScope open(String stage) {
+		return new StageScope(statsFor(stage), parallelism * 2, parallelism == 1 || IN_TASK.get());
+	}
+
+	/**
+	 * Clears the statistics recorded so far.
+	 */
+	public void resetStats() {
+		stats.clear();
+	}
+
+	/**
+	 * Prints the task counts and scheduling overhead recorded for each stage.
+	 */
+	public void printReport() {
+		Map<String, StageStats> sorted = new TreeMap<>(stats);
+		System.out.println(ConsoleColour.CYAN + "\nScheduler report (parallelism " + parallelism + "):"
+				+ ConsoleColour.RESET);
+		sorted.forEach((stage, s) -> System.out.printf(
+				"  %-20s items=%d forked=%d inline=%d scheduling=%.2fms waiting=%.2fms busy=%.2fms%n", stage,
+				s.items.sum(), s.forked.sum(), s.inline.sum(), s.schedulingNanos.sum() / 1e6,
+				s.waitNanos.sum() / 1e6, s.busyNanos.sum() / 1e6));
+	}
+
+	private StageStats statsFor(String stage) {
+		return stats.computeIfAbsent(stage, k -> new StageStats());
+	}
+
+	/**
+	 * StageScope submits batches to a structured task scope while bounding the
+	 * number of batches in flight. When opened from inside a scheduled task, or
+	 * with a parallelism of 1, every batch runs inline.
+	 */
+	public static class StageScope implements AutoCloseable {
+		private final StageStats stats;
+		private final boolean inline;
+		private final Semaphore permits;
+		private final StructuredTaskScope.ShutdownOnFailure scope;
+
+		private StageScope(StageStats stats, int maxInFlight, boolean inline) {
+			this.stats = stats;
+			this.inline = inline;
+			this.permits = new Semaphore(maxInFlight);
+			this.scope = inline ? null : new StructuredTaskScope.ShutdownOnFailure();
+		}
+
+		/**
+		 * Submits a batch, blocking while the maximum number of batches are in
+		 * flight. Once a batch has failed the scope is shut down and no further
+		 * batches are accepted; the failure is reported by join.
+		 *
+		 * @param items The number of elements the batch covers.
+		 * @param batch The batch to run.
+		 * @return False if the batch was not submitted because a batch failed.
+		 * @throws InterruptedException If the caller is interrupted while waiting.
+		 */
+		public boolean submit(int items, Runnable batch) throws InterruptedException {
+			if (inline) {
+				stats.recordInline(items);
+				batch.run();
+				return true;
+			}
+			long start = System.nanoTime();
+			// Backpressure on the submitting thread. Batches forked after a failure
+			// never run and never release their permit, so stop waiting then
+			while (!permits.tryAcquire(SHUTDOWN_POLL_MILLIS, TimeUnit.MILLISECONDS)) {
+				if (scope.isShutdown()) {
+					return false;
+				}
+			}
+			long acquired = System.nanoTime();
+			if (scope.isShutdown()) {
+				permits.release();
+				return false;
+			}
+			scope.fork(() -> {
+				long begin = System.nanoTime();
+				IN_TASK.set(true);
+				try {
+					batch.run();
+				} finally {
+					stats.busyNanos.add(System.nanoTime() - begin);
+					permits.release();
+				}
+				return null;
+			});
+			stats.waitNanos.add(acquired - start);
+			stats.recordForked(items, System.nanoTime() - acquired);
+			return true;
+		}
+
+		/**
+		 * Waits for all submitted batches to complete.
+		 *
+		 * @throws InterruptedException If the caller is interrupted while waiting.
+		 * @throws ExecutionException   If any batch failed.
+		 */
+		public void join() throws InterruptedException, ExecutionException {
+			if (inline) {
+				return;
+			}
+			long start = System.nanoTime();
+			scope.join();
+			stats.waitNanos.add(System.nanoTime() - start);
+			scope.throwIfFailed();
+		}
+
+		@Override
+		public void close() {
+			if (scope != null) {
+				scope.close();
+			}
+		}
+	}
+
+	/**
+	 * Counters recorded for a single stage.
+	 */
+	private static class StageStats {
+		private final LongAdder items = new LongAdder();
+		private final LongAdder forked = new LongAdder();
+		private final LongAdder inline = new LongAdder();
+		private final LongAdder schedulingNanos = new LongAdder();
+		private final LongAdder waitNanos = new LongAdder();
+		private final LongAdder busyNanos = new LongAdder();
+
+		private void recordInline(int count) {
+			items.add(count);
+			inline.increment();
+		}
+
+		private void recordForked(int count, long nanos) {
+			items.add(count);
+			forked.increment();
+			schedulingNanos.add(nanos);
+		}
+	}
+}
@@ -1,16 +1,13 @@
 package ie.atu.sw;
 
 import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutionException;
-import java.util.concurrent.StructuredTaskScope;
 
 /**
  * TextProcessor is responsible for processing lines of text by converting them
- * to lowercase and saving processed lines to a file. This class uses structured
- * concurrency for both processing and file saving tasks.
+ * to lowercase and saving processed lines to a file. Lines are loaded in
+ * batches by the shared TaskScheduler.
  */
 public class TextProcessor extends AbstractProcessor {
 	private final CopyOnWriteArrayList<String> processedLines = new CopyOnWriteArrayList<>();
@@ -43,9 +40,11 @@ public class TextProcessor extends AbstractProcessor {
 	}
 
 	/**
-	 * Saves the processed lines to a file using structured concurrency.
+	 * Saves the processed lines to a file.
 	 *
-	 * Each line is written to the file in a separate virtual thread.
+	 * Writes to a single file cannot run in parallel, so the lines are written
+	 * in order on the calling thread rather than forking a task per line. Paths
+	 * ending in .gz are written gzip-compressed.
 	 * 
 	 * Running time: O(n), where n is the number of lines to save.
 	 *
@@ -54,26 +53,11 @@ public class TextProcessor extends AbstractProcessor {
 	 * @throws IOException If an I/O error occurs during file saving.
 	 */
 	public static void saveToFile(String filePath, CopyOnWriteArrayList<String> text) throws IOException {
-		try (BufferedWriter writer = new BufferedWriter(new FileWriter(filePath));
-				var scope = new StructuredTaskScope.ShutdownOnFailure()) {
-			// Write each line to the file in a separate virtual thread
+		try (BufferedWriter writer = FileStreams.openWriter(filePath)) {
 			for (String line : text) {
-				scope.fork(() -> {
-					// Synchronise the writer to prevent multiple threads from writing to the
-					// file at the same time
-					synchronized (writer) {
-						writer.write(line);
-						writer.newLine();
-					}
-					return null;
-				});
+				writer.write(line);
+				writer.newLine();
 			}
-			// Wait for all tasks to complete and throw an exception if any task failed
-			scope.join();
-			scope.throwIfFailed();
-		} catch (InterruptedException | ExecutionException e) {
-			Thread.currentThread().interrupt();
-			throw new IOException("Error while saving file: " + e.getMessage(), e);
 		}
 	}
 }
@@ -1,35 +1,88 @@
 package ie.atu.sw;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.EnumSet;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
-import java.util.concurrent.StructuredTaskScope;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
 
 /**
  * TextSimplifier is responsible for simplifying lines of text by replacing
  * words with their most similar counterparts from a given embedding map.
+ * Multi-word phrases from the embeddings vocabulary are replaced as a whole,
+ * and words without an embedding can be given one composed from their
+ * character n-grams by a SubwordModel.
  *
- * The class uses structured concurrency to process lines and words in parallel.
+ * The class uses the shared TaskScheduler to process lines and words in
+ * parallel.
  */
 public class TextSimplifier {
 
+	// Minimum number of lines and words simplified by a single task
+	private static final int LINES_PER_BATCH = 4;
+	private static final int WORDS_PER_BATCH = 16;
+
 	private final SimilarityFinder similarityFinder;
+	private final PhraseMatcher phraseMatcher;
+	private final SubwordModel subwordModel;
 
 	/**
-	 * TextSimplifier constructor with the specified similarity finder.
+	 * TextSimplifier constructor with the specified similarity finder. Only
+	 * single words are simplified.
 	 *
 	 * @param similarityFinder The SimilarityFinder to use for finding similar
 	 *                         words.
 	 */
 	public TextSimplifier(SimilarityFinder similarityFinder) {
+		this(similarityFinder, null);
+	}
+
+	/**
+	 * TextSimplifier constructor with the specified similarity finder and phrase
+	 * matcher.
+	 *
+	 * @param similarityFinder The SimilarityFinder to use for finding similar
+	 *                         words.
+	 * @param phraseMatcher    The PhraseMatcher used to find multi-word phrases,
+	 *                         or null to simplify single words only.
+	 */
+	public TextSimplifier(SimilarityFinder similarityFinder, PhraseMatcher phraseMatcher) {
+		this(similarityFinder, phraseMatcher, null);
+	}
+
+	/**
+	 * TextSimplifier constructor with the specified similarity finder, phrase
+	 * matcher and subword model.
+	 *
+	 * @param similarityFinder The SimilarityFinder to use for finding similar
+	 *                         words.
+	 * @param phraseMatcher    The PhraseMatcher used to find multi-word phrases,
+	 *                         or null to simplify single words only.
+	 * @param subwordModel     The SubwordModel used to compose vectors for words
+	 *                         without an embedding, or null to pass them through
+	 *                         unchanged.
+	 */
+	public TextSimplifier(SimilarityFinder similarityFinder, PhraseMatcher phraseMatcher,
+			SubwordModel subwordModel) {
 		this.similarityFinder = similarityFinder;
+		this.phraseMatcher = (phraseMatcher == null || phraseMatcher.isEmpty()) ? null : phraseMatcher;
+		this.subwordModel = subwordModel;
 	}
 
 	/**
-	 * Simplifies each line in the given list of lines using structured concurrency.
+	 * Simplifies each line in the given list of lines using the shared
+	 * TaskScheduler.
 	 *
-	 * Each line is processed in a separate virtual thread, and words are replaced
-	 * with their most similar equivalents based on the provided embeddings.
+	 * Lines are processed in batches, and words are replaced with their most
+	 * similar equivalents based on the provided embeddings. The simplified lines
+	 * keep the order of the input.
 	 * 
 	 * Running time: O(n * m), where n is the number of lines, m is the average
 	 * number of words per line, assuming the embeddings map stays the same and the
@@ -42,35 +95,71 @@ public class TextSimplifier {
 	 */
 	public CopyOnWriteArrayList<String> simplifyLines(CopyOnWriteArrayList<String> lines,
 			ConcurrentHashMap<String, double[]> embeddings, ConcurrentHashMap<String, double[]> googleEmbeddings) {
-		CopyOnWriteArrayList<String> simplifiedLines = new CopyOnWriteArrayList<>();
-		try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
-			// Process each line in a separate virtual thread
-			for (String line : lines) {
-				scope.fork(() -> {
-					// Simplify the line and add it to the list
-					String simplifiedLine = simplifyText(line, embeddings, googleEmbeddings);
-					simplifiedLines.add(simplifiedLine);
-					return null;
-				});
-			}
-			// Wait for all tasks to complete and throw an exception if any failed
-			scope.join();
-			scope.throwIfFailed();
-		} catch (InterruptedException | ExecutionException e) {
+		return simplifyLines(lines, embeddings, vector -> similarityFinder.findMostSimilar(vector, googleEmbeddings));
+	}
+
+	/**
+	 * Simplifies each line in the given list of lines, finding the most similar
+	 * target words with the vocabulary's prepared search index instead of scanning
+	 * every target word.
+	 *
+	 * Running time: O(n * m), as for the map-based variant, with a smaller
+	 * constant per word.
+	 *
+	 * @param lines      The lines of text to simplify.
+	 * @param embeddings The map of all embeddings.
+	 * @param vocabulary The target vocabulary.
+	 * @return A list of simplified text lines.
+	 */
+	public CopyOnWriteArrayList<String> simplifyLines(CopyOnWriteArrayList<String> lines,
+			ConcurrentHashMap<String, double[]> embeddings, TargetVocabulary vocabulary) {
+		return simplifyLines(lines, embeddings, vector -> similarityFinder.findMostSimilar(vector, vocabulary));
+	}
+
+	/**
+	 * Simplifies each line using the given function to find the most similar
+	 * target word for a vector.
+	 */
+	private CopyOnWriteArrayList<String> simplifyLines(CopyOnWriteArrayList<String> lines,
+			ConcurrentHashMap<String, double[]> embeddings, Function<double[], String> nearest) {
+		String[] source = lines.toArray(new String[0]);
+		String[] simplified = new String[source.length];
+		try {
+			TaskScheduler.getShared().forEachBatch("lines", source.length, LINES_PER_BATCH, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					simplified[i] = simplifyText(source[i], embeddings, nearest);
+				}
+			});
+		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			System.err.println("Error during line simplification: " + e.getMessage());
+		} catch (ExecutionException e) {
+			System.err.println("Error during line simplification: " + e.getMessage());
 		}
-		return simplifiedLines;
+		// Lines that were not simplified are passed through unchanged
+		for (int i = 0; i < source.length; i++) {
+			if (simplified[i] == null) {
+				simplified[i] = source[i];
+			}
+		}
+		return new CopyOnWriteArrayList<>(simplified);
 	}
 
 	/**
-	 * Simplifies a single line of text using structured concurrency for words.
+	 * Simplifies a single line of text.
 	 *
-	 * Each word in the line is processed in a separate virtual thread, and replaced
-	 * with the most similar word from the Google-1000 embeddings.
+	 * If a PhraseMatcher is set, the longest phrase from the vocabulary starting
+	 * at each word is replaced as a whole, for example "new york" is replaced by
+	 * the word most similar to "new_york". Every other word is replaced with the
+	 * most similar word from the Google-1000 embeddings. Words without an
+	 * embedding are passed through unchanged unless a SubwordModel is set and can
+	 * compose a vector for them. Words are processed in parallel only when the
+	 * line is long enough and is not already being simplified inside a scheduled
+	 * task.
 	 * 
 	 * Running time: O(n), where n is the number of words in the line, assuming the
-	 * dimensionality of the embeddings stays the same.
+	 * dimensionality of the embeddings and the longest phrase length stay the
+	 * same.
 	 *
 	 * @param line             The line to simplify.
 	 * @param embeddings       The map of all embeddings.
@@ -79,35 +168,180 @@ public class TextSimplifier {
 	 */
 	public String simplifyText(String line, ConcurrentHashMap<String, double[]> embeddings,
 			ConcurrentHashMap<String, double[]> googleEmbeddings) {
-		ConcurrentHashMap<Integer, String> simplifiedWords = new ConcurrentHashMap<>();
-		String[] words = line.split("\\s+");
-		try (var scope = new StructuredTaskScope.ShutdownOnFailure()) {
-			// Process each word in a separate virtual thread
-			for (int i = 0; i < words.length; i++) {
-				final int index = i;
-				scope.fork(() -> {
-					String word = words[index];
-					double[] embedding = embeddings.get(word.toLowerCase());
+		return simplifyText(line, embeddings, vector -> similarityFinder.findMostSimilar(vector, googleEmbeddings));
+	}
+
+	/**
+	 * Simplifies a single line using the given function to find the most similar
+	 * target word for a vector.
+	 */
+	private String simplifyText(String line, ConcurrentHashMap<String, double[]> embeddings,
+			Function<double[], String> nearest) {
+		Segments segments = new Segments(line, phraseMatcher);
+		String[] simplifiedWords = new String[segments.count];
+		try {
+			TaskScheduler.getShared().forEachBatch("words", segments.count, WORDS_PER_BATCH, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					double[] embedding = lookup(segments.keys[i], embeddings);
 					// Find the most similar word from the Google-1000 embeddings
-					String simplifiedWord = (embedding != null)
-							? similarityFinder.findMostSimilar(embedding, googleEmbeddings)
-							: word;
-					simplifiedWords.put(index, simplifiedWord); // Add simplified word to the map
-					return null;
-				});
-			}
-			// Wait for all tasks to complete
-			scope.join();
-			scope.throwIfFailed();
-		} catch (InterruptedException | ExecutionException e) {
+					if (embedding != null) {
+						simplifiedWords[i] = nearest.apply(embedding);
+					}
+				}
+			});
+		} catch (InterruptedException e) {
 			Thread.currentThread().interrupt();
 			System.err.println("Error during word simplification: " + e.getMessage());
+		} catch (ExecutionException e) {
+			System.err.println("Error during word simplification: " + e.getMessage());
+		}
+		return segments.join(simplifiedWords);
+	}
+
+	/**
+	 * Simplifies each line once for every given algorithm, finding the most
+	 * similar word for all algorithms in a single pass over the target words.
+	 *
+	 * Every word whose replacements differ between the algorithms is recorded as
+	 * a disagreement. The outputs are the same as simplifying with each algorithm
+	 * separately.
+	 * 
+	 * Running time: O(n * m), where n is the number of lines and m is the average
+	 * number of words per line, with close to the cost of a single algorithm.
+	 *
+	 * @param lines            The lines of text to simplify.
+	 * @param embeddings       The map of all embeddings.
+	 * @param googleEmbeddings The map of Google-1000 embeddings.
+	 * @param algorithms       The algorithms to compare.
+	 * @return The simplified lines for each algorithm and the disagreements.
+	 */
+	public MetricComparison compareLines(CopyOnWriteArrayList<String> lines,
+			ConcurrentHashMap<String, double[]> embeddings, ConcurrentHashMap<String, double[]> googleEmbeddings,
+			Set<SimilarityFinder.SimilarityAlgorithm> algorithms) {
+		String[] source = lines.toArray(new String[0]);
+		List<SimilarityFinder.SimilarityAlgorithm> selected = new ArrayList<>(EnumSet.copyOf(algorithms));
+		String[][] simplified = new String[selected.size()][source.length];
+		List<List<MetricComparison.Disagreement>> lineDisagreements = new ArrayList<>(source.length);
+		for (int i = 0; i < source.length; i++) {
+			lineDisagreements.add(new ArrayList<>());
+		}
+		LongAdder compared = new LongAdder();
+		try {
+			TaskScheduler.getShared().forEachBatch("lines", source.length, LINES_PER_BATCH, (from, to) -> {
+				for (int i = from; i < to; i++) {
+					Segments segments = new Segments(source[i], phraseMatcher);
+					String[][] words = new String[selected.size()][segments.count];
+					for (int j = 0; j < segments.count; j++) {
+						double[] embedding = lookup(segments.keys[j], embeddings);
+						if (embedding == null) {
+							continue;
+						}
+						var nearest = similarityFinder.findMostSimilar(embedding, googleEmbeddings, algorithms);
+						for (int m = 0; m < selected.size(); m++) {
+							words[m][j] = nearest.get(selected.get(m));
+						}
+						compared.increment();
+						if (new HashSet<>(nearest.values()).size() > 1) {
+							lineDisagreements.get(i)
+									.add(new MetricComparison.Disagreement(i, segments.original(j), nearest));
+						}
+					}
+					for (int m = 0; m < selected.size(); m++) {
+						simplified[m][i] = segments.join(words[m]);
+					}
+				}
+			});
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			System.err.println("Error during line comparison: " + e.getMessage());
+		} catch (ExecutionException e) {
+			System.err.println("Error during line comparison: " + e.getMessage());
+		}
+
+		EnumMap<SimilarityFinder.SimilarityAlgorithm, CopyOnWriteArrayList<String>> outputs = new EnumMap<>(
+				SimilarityFinder.SimilarityAlgorithm.class);
+		for (int m = 0; m < selected.size(); m++) {
+			// Lines that were not simplified are passed through unchanged
+			for (int i = 0; i < source.length; i++) {
+				if (simplified[m][i] == null) {
+					simplified[m][i] = source[i];
+				}
+			}
+			outputs.put(selected.get(m), new CopyOnWriteArrayList<>(simplified[m]));
 		}
-		// Combine simplified words into a single line
-		StringBuilder simplifiedLine = new StringBuilder();
-		for (int i = 0; i < words.length; i++) {
-			simplifiedLine.append(simplifiedWords.getOrDefault(i, words[i])).append(" ");
+		List<MetricComparison.Disagreement> disagreements = new ArrayList<>();
+		lineDisagreements.forEach(disagreements::addAll);
+		return new MetricComparison(selected, outputs, disagreements, compared.sum());
+	}
+
+	/**
+	 * Returns the embedding of a word or phrase, falling back to a vector composed
+	 * from its character n-grams if the subword model is set.
+	 *
+	 * Running time: O(1) for words with an embedding or a cached vector.
+	 */
+	private double[] lookup(String key, ConcurrentHashMap<String, double[]> embeddings) {
+		double[] embedding = embeddings.get(key);
+		return (embedding != null || subwordModel == null) ? embedding : subwordModel.vectorFor(key);
+	}
+
+	/**
+	 * Segments splits a line into words and groups them into segments of one
+	 * word, or one phrase if a phrase matcher is set.
+	 */
+	private static class Segments {
+		private final String[] words;
+		private final int[] starts;
+		private final String[] keys;
+		private final int count;
+
+		/**
+		 * Splits the line, taking the longest phrase starting at each word.
+		 *
+		 * Running time: O(n), where n is the number of words in the line.
+		 */
+		private Segments(String line, PhraseMatcher phraseMatcher) {
+			words = line.split("\\s+");
+			String[] lowerWords = new String[words.length];
+			for (int i = 0; i < words.length; i++) {
+				lowerWords[i] = words[i].toLowerCase();
+			}
+			starts = new int[words.length + 1];
+			keys = new String[words.length];
+			int segments = 0;
+			for (int i = 0; i < words.length;) {
+				PhraseMatcher.Node phrase = (phraseMatcher != null) ? phraseMatcher.longestMatch(lowerWords, i) : null;
+				starts[segments] = i;
+				keys[segments++] = (phrase != null) ? phrase.getKey() : lowerWords[i];
+				i += (phrase != null) ? phrase.getLength() : 1;
+			}
+			starts[segments] = words.length;
+			count = segments;
+		}
+
+		/**
+		 * Returns the original words of a segment.
+		 */
+		private String original(int segment) {
+			return String.join(" ", Arrays.copyOfRange(words, starts[segment], starts[segment + 1]));
+		}
+
+		/**
+		 * Combines the replacements into a single line, keeping the original words
+		 * of segments that were not simplified.
+		 */
+		private String join(String[] replacements) {
+			StringBuilder simplifiedLine = new StringBuilder();
+			for (int i = 0; i < count; i++) {
+				if (replacements[i] != null) {
+					simplifiedLine.append(replacements[i]).append(" ");
+				} else {
+					for (int j = starts[i]; j < starts[i + 1]; j++) {
+						simplifiedLine.append(words[j]).append(" ");
+					}
+				}
+			}
+			return simplifiedLine.toString().trim();
 		}
-		return simplifiedLine.toString().trim();
 	}
 }
@@ -0,0 +1,177 @@
+package ie.atu.sw;
+
+import java.io.IOException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VocabularyRegistry holds an embedding store that is loaded once and any
+ * number of named target vocabularies prepared against it. A simplification job
+ * selects a vocabulary by name, so switching between word lists (for example by
+ * reading level or domain) does not reload the embeddings.
+ *
+ * The registry is thread-safe and can be shared by concurrent jobs.
+ */
+public class VocabularyRegistry {
+	private final String embeddingsFile;
+	private final ConcurrentHashMap<String, double[]> embeddings;
+	private final ConcurrentHashMap<String, TargetVocabulary> vocabularies = new ConcurrentHashMap<>();
+	private volatile PhraseMatcher phraseMatcher;
+	private volatile SubwordModel subwordModel;
+	// Separate lock so the subword model and phrase matcher can be built together
+	private final Object subwordLock = new Object();
+
+	/**
+	 * VocabularyRegistry constructor with an already loaded embedding store.
+	 *
+	 * @param embeddingsFile The path the embeddings were loaded from.
+	 * @param embeddings     The map of all embeddings.
+	 */
+	public VocabularyRegistry(String embeddingsFile, ConcurrentHashMap<String, double[]> embeddings) {
+		this.embeddingsFile = embeddingsFile;
+		this.embeddings = embeddings;
+	}
+
+	/**
+	 * Loads the embeddings file into a new registry.
+	 *
+	 * Running time: O(n), where n is the number of lines in the file.
+	 *
+	 * @param embeddingsFile The path to the embeddings file.
+	 * @return A registry with no vocabularies.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	public static VocabularyRegistry load(String embeddingsFile) throws IOException {
+		EmbeddingProcessor embeddingProcessor = new EmbeddingProcessor();
+		embeddingProcessor.load(embeddingsFile);
+		return new VocabularyRegistry(embeddingsFile, embeddingProcessor.getEmbeddings());
+	}
+
+	/**
+	 * Loads a word list file and registers it under the given name, replacing
+	 * any vocabulary already registered under that name.
+	 *
+	 * Running time: O(n), where n is the number of words in the file.
+	 *
+	 * @param name         The name to register the vocabulary under.
+	 * @param wordListFile The path to the word list file, one word per line.
+	 * @return The registered vocabulary.
+	 * @throws IOException If an error occurs while reading the file.
+	 */
+	public TargetVocabulary register(String name, String wordListFile) throws IOException {
+		GoogleProcessor wordListProcessor = new GoogleProcessor();
+		wordListProcessor.load(wordListFile);
+		return register(name, wordListProcessor.getGoogleWords());
+	}
+
+	/**
+	 * Registers a set of target words under the given name, replacing any
+	 * vocabulary already registered under that name.
+	 *
+	 * Running time: O(n), where n is the number of words.
+	 *
+	 * @param name  The name to register the vocabulary under.
+	 * @param words The target words.
+	 * @return The registered vocabulary.
+	 */
+	public TargetVocabulary register(String name, Set<String> words) {
+		return register(name, words, embeddings);
+	}
+
+	/**
+	 * Registers a set of target words under the given name, taking their vectors
+	 * from a map of vectors captured while the embeddings were loaded rather than
+	 * from the full store.
+	 *
+	 * Running time: O(n), where n is the number of words.
+	 *
+	 * @param name     The name to register the vocabulary under.
+	 * @param words    The target words.
+	 * @param captured The vectors captured for the target words.
+	 * @return The registered vocabulary.
+	 */
+	public TargetVocabulary register(String name, Set<String> words, ConcurrentHashMap<String, double[]> captured) {
+		var targetEmbeddings = new Mapper().generateMapping(captured, words);
+		TargetVocabulary vocabulary = new TargetVocabulary(name, targetEmbeddings);
+		vocabularies.put(name, vocabulary);
+		return vocabulary;
+	}
+
+	/**
+	 * Returns the vocabulary registered under the given name.
+	 *
+	 * @param name The vocabulary name.
+	 * @return The vocabulary.
+	 * @throws IllegalArgumentException If no vocabulary has that name.
+	 */
+	public TargetVocabulary get(String name) {
+		TargetVocabulary vocabulary = vocabularies.get(name);
+		if (vocabulary == null) {
+			throw new IllegalArgumentException("Unknown vocabulary: " + name);
+		}
+		return vocabulary;
+	}
+
+	/**
+	 * Returns true if a vocabulary is registered under the given name.
+	 *
+	 * @param name The vocabulary name.
+	 * @return True if the vocabulary exists.
+	 */
+	public boolean contains(String name) {
+		return vocabularies.containsKey(name);
+	}
+
+	/**
+	 * Returns the path the embeddings were loaded from.
+	 *
+	 * @return The embeddings file path.
+	 */
+	public String getEmbeddingsFile() {
+		return embeddingsFile;
+	}
+
+	/**
+	 * Returns the shared embedding store. The map is not copied and must not be
+	 * modified.
+	 *
+	 * @return The map of all embeddings.
+	 */
+	public ConcurrentHashMap<String, double[]> getEmbeddings() {
+		return embeddings;
+	}
+
+	/**
+	 * Returns the phrase matcher for the embeddings vocabulary, building it on
+	 * first use.
+	 *
+	 * @return The phrase matcher.
+	 */
+	public PhraseMatcher getPhraseMatcher() {
+		if (phraseMatcher == null) {
+			synchronized (this) {
+				if (phraseMatcher == null) {
+					phraseMatcher = PhraseMatcher.fromVocabulary(embeddings.keySet());
+				}
+			}
+		}
+		return phraseMatcher;
+	}
+
+	/**
+	 * Returns the subword model for the embeddings vocabulary, building it on
+	 * first use.
+	 *
+	 * @return The subword model.
+	 */
+	public SubwordModel getSubwordModel() {
+		if (subwordModel == null) {
+			synchronized (subwordLock) {
+				if (subwordModel == null) {
+					subwordModel = new SubwordModel(embeddings);
+				}
+			}
+		}
+		return subwordModel;
+	}
+}